@@ -0,0 +1,295 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notNull;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Runs statements of a {@code SqlSessionTemplate} asynchronously and returns their results as
+ * {@code CompletableFuture}s, so several independent queries can be issued at once and awaited together.
+ * <p>
+ * Every task runs on a thread of the configured {@code Executor} through the wrapped template. As Spring transactions
+ * are bound to threads, each task uses its own non transactional {@code SqlSession} that is committed and closed when
+ * the task ends, even if the caller is running within a transaction. Exceptions are translated by the template, so a
+ * future completes exceptionally with the {@code DataAccessException} the synchronous call would have thrown.
+ * <p>
+ * When no executor is given, tasks run on virtual threads if the JVM supports them, or on a bounded thread pool
+ * otherwise. Only the executor created by this class is shut down when it is destroyed. A task the executor rejects,
+ * like one submitted while the queue of the pool is full, is not thrown to the caller but fails its future with the
+ * {@code RejectedExecutionException}.
+ *
+ * <pre class="code">
+ * CompletableFuture&lt;User&gt; user = asyncTemplate.selectOneAsync("getUser", userId);
+ * CompletableFuture&lt;List&lt;Order&gt;&gt; orders = asyncTemplate.selectListAsync("getOrders", userId);
+ * CompletableFuture.allOf(user, orders).join();
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionTemplate
+ */
+public class AsyncSqlSessionTemplate implements DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncSqlSessionTemplate.class);
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private final SqlSessionTemplate sqlSessionTemplate;
+
+  private final Executor executor;
+
+  private final ExecutorService ownedExecutor;
+
+  /**
+   * Creates an asynchronous template that runs tasks on virtual threads if available, or on a bounded pool of twice as
+   * many threads as available processors otherwise.
+   *
+   * @param sqlSessionTemplate
+   *          the template used to run the statements
+   */
+  public AsyncSqlSessionTemplate(SqlSessionTemplate sqlSessionTemplate) {
+    notNull(sqlSessionTemplate, "Property 'sqlSessionTemplate' is required");
+    this.sqlSessionTemplate = sqlSessionTemplate;
+    this.ownedExecutor = createDefaultExecutor();
+    this.executor = this.ownedExecutor;
+  }
+
+  /**
+   * Creates an asynchronous template that runs tasks on the given executor. The executor should be bounded, as every
+   * running task holds a JDBC connection. It should not run tasks on the calling thread, or tasks will join the
+   * transaction of the caller.
+   *
+   * @param sqlSessionTemplate
+   *          the template used to run the statements
+   * @param executor
+   *          the executor running the tasks
+   */
+  public AsyncSqlSessionTemplate(SqlSessionTemplate sqlSessionTemplate, Executor executor) {
+    notNull(sqlSessionTemplate, "Property 'sqlSessionTemplate' is required");
+    notNull(executor, "Property 'executor' is required");
+    this.sqlSessionTemplate = sqlSessionTemplate;
+    this.executor = executor;
+    this.ownedExecutor = null;
+  }
+
+  public SqlSessionTemplate getSqlSessionTemplate() {
+    return this.sqlSessionTemplate;
+  }
+
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectOne(String)}.
+   *
+   * @param <T>
+   *          the returned object type
+   * @param statement
+   *          the statement to use
+   * @return a future of the mapped object
+   */
+  public <T> CompletableFuture<T> selectOneAsync(String statement) {
+    return executeAsync(sqlSession -> sqlSession.selectOne(statement));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectOne(String, Object)}.
+   *
+   * @param <T>
+   *          the returned object type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a future of the mapped object
+   */
+  public <T> CompletableFuture<T> selectOneAsync(String statement, Object parameter) {
+    return executeAsync(sqlSession -> sqlSession.selectOne(statement, parameter));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectList(String)}.
+   *
+   * @param <E>
+   *          the returned list element type
+   * @param statement
+   *          the statement to use
+   * @return a future of the list of mapped objects
+   */
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement) {
+    return executeAsync(sqlSession -> sqlSession.selectList(statement));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectList(String, Object)}.
+   *
+   * @param <E>
+   *          the returned list element type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a future of the list of mapped objects
+   */
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+    return executeAsync(sqlSession -> sqlSession.selectList(statement, parameter));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectList(String, Object, RowBounds)}.
+   *
+   * @param <E>
+   *          the returned list element type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @param rowBounds
+   *          bounds to limit object retrieval
+   * @return a future of the list of mapped objects
+   */
+  public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+    return executeAsync(sqlSession -> sqlSession.selectList(statement, parameter, rowBounds));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#selectMap(String, Object, String)}.
+   *
+   * @param <K>
+   *          the returned map key type
+   * @param <V>
+   *          the returned map value type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @param mapKey
+   *          the property to use as key for each value in the list
+   * @return a future of the map of mapped objects
+   */
+  public <K, V> CompletableFuture<Map<K, V>> selectMapAsync(String statement, Object parameter, String mapKey) {
+    return executeAsync(sqlSession -> sqlSession.selectMap(statement, parameter, mapKey));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#insert(String, Object)}.
+   *
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a future of the number of rows affected by the insert
+   */
+  public CompletableFuture<Integer> insertAsync(String statement, Object parameter) {
+    return executeAsync(sqlSession -> sqlSession.insert(statement, parameter));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#update(String, Object)}.
+   *
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a future of the number of rows affected by the update
+   */
+  public CompletableFuture<Integer> updateAsync(String statement, Object parameter) {
+    return executeAsync(sqlSession -> sqlSession.update(statement, parameter));
+  }
+
+  /**
+   * Asynchronous version of {@link SqlSession#delete(String, Object)}.
+   *
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a future of the number of rows affected by the delete
+   */
+  public CompletableFuture<Integer> deleteAsync(String statement, Object parameter) {
+    return executeAsync(sqlSession -> sqlSession.delete(statement, parameter));
+  }
+
+  /**
+   * Runs the given action asynchronously against the wrapped template. The action may call several methods of the
+   * template or use its mappers, each call running with its own non transactional {@code SqlSession}.
+   *
+   * @param <T>
+   *          the result type
+   * @param action
+   *          the action to run
+   * @return a future of the result of the action, completed exceptionally with a
+   *         {@code RejectedExecutionException} if the executor does not accept the task
+   */
+  public <T> CompletableFuture<T> executeAsync(Function<SqlSession, T> action) {
+    notNull(action, "Parameter 'action' must be not null");
+    try {
+      return CompletableFuture.supplyAsync(() -> action.apply(this.sqlSessionTemplate), this.executor);
+    } catch (RejectedExecutionException e) {
+      CompletableFuture<T> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+  }
+
+  /**
+   * Shuts down the executor if it was created by this template.
+   */
+  @Override
+  public void destroy() {
+    if (this.ownedExecutor != null) {
+      this.ownedExecutor.shutdown();
+    }
+  }
+
+  private static ExecutorService createDefaultExecutor() {
+    Method factoryMethod = ReflectionUtils.findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+    if (factoryMethod != null) {
+      LOGGER.debug(() -> "Running asynchronous SqlSession tasks on virtual threads");
+      return (ExecutorService) ReflectionUtils.invokeMethod(factoryMethod, null);
+    }
+    int threads = Runtime.getRuntime().availableProcessors() * 2;
+    LOGGER.debug(() -> "Running asynchronous SqlSession tasks on a pool of " + threads + " threads");
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mybatis-async-");
+    threadFactory.setDaemon(true);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY), threadFactory);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+}
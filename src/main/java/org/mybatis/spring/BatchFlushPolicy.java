@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.SqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * Bounds the statements a {@code BATCH} {@code SqlSessionTemplate} keeps pending within a transaction or a
+ * {@link SqlSessionScope}.
+ * <p>
+ * A {@code BATCH} executor keeps every statement and its parameter object until it is flushed, which within a
+ * transaction happens when it commits. With this policy the pending statements are flushed as soon as there are
+ * {@code maxStatements} of them, or as soon as the estimated size of their parameters reaches {@code maxBytes}, so the
+ * memory they use stays bounded however long the transaction is. The flushed statements are still part of the
+ * transaction and are rolled back with it.
+ * <p>
+ * The {@code BatchResult}s of the automatic flushes are handed to the result handler, if one is set, and discarded
+ * otherwise. As a {@code BatchResult} references the parameter objects of its statements, a handler should keep the
+ * update counts it needs rather than the results themselves.
+ *
+ * <pre class="code">
+ * BatchFlushPolicy policy = new BatchFlushPolicy();
+ * policy.setMaxStatements(1000);
+ * policy.setMaxBytes(8 * 1024 * 1024);
+ * policy.setResultHandler(results -&gt; results.forEach(result -&gt; checkUpdateCounts(result.getUpdateCounts())));
+ * batchSqlSessionTemplate.setBatchFlushPolicy(policy);
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionTemplate#setBatchFlushPolicy(BatchFlushPolicy)
+ */
+public class BatchFlushPolicy {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchFlushPolicy.class);
+
+  private static final long STATEMENT_OVERHEAD = 64;
+
+  private static final long VALUE_SIZE = 16;
+
+  private int maxStatements = 1000;
+
+  private long maxBytes;
+
+  private ToLongFunction<Object> sizeEstimator = BatchFlushPolicy::estimateSize;
+
+  private Consumer<List<BatchResult>> resultHandler;
+
+  /**
+   * Sets the number of pending statements that triggers a flush. Defaults to 1000.
+   *
+   * @param maxStatements
+   *          the number of pending statements that triggers a flush, or 0 for no limit
+   */
+  public void setMaxStatements(int maxStatements) {
+    isTrue(maxStatements >= 0, "Property 'maxStatements' must not be negative");
+    this.maxStatements = maxStatements;
+  }
+
+  public int getMaxStatements() {
+    return this.maxStatements;
+  }
+
+  /**
+   * Sets the estimated size of the pending parameters that triggers a flush. There is no limit by default.
+   *
+   * @param maxBytes
+   *          the estimated size in bytes that triggers a flush, or 0 for no limit
+   */
+  public void setMaxBytes(long maxBytes) {
+    isTrue(maxBytes >= 0, "Property 'maxBytes' must not be negative");
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Sets the function estimating the size in bytes of the parameter of a statement. The default estimate is shallow: it
+   * counts the characters of strings, the length of byte arrays, a fixed size per element of collections and maps and
+   * per other object, plus a fixed overhead per statement. A more accurate estimator should be set when parameters are
+   * large beans.
+   *
+   * @param sizeEstimator
+   *          the estimator of the parameter sizes
+   */
+  public void setSizeEstimator(ToLongFunction<Object> sizeEstimator) {
+    notNull(sizeEstimator, "Property 'sizeEstimator' is required");
+    this.sizeEstimator = sizeEstimator;
+  }
+
+  /**
+   * Sets the handler of the {@code BatchResult}s of the automatic flushes. They are discarded when it is not set, which
+   * is the default.
+   *
+   * @param resultHandler
+   *          the handler of the results of the automatic flushes, or {@code null} to discard them
+   */
+  public void setResultHandler(Consumer<List<BatchResult>> resultHandler) {
+    this.resultHandler = resultHandler;
+  }
+
+  /**
+   * Accounts a statement that was just added to the pending ones of the {@code BATCH} session of the given holder, and
+   * flushes them if a limit is reached.
+   */
+  void afterStatement(SqlSessionHolder holder, SqlSession sqlSession, Object parameter) {
+    long pendingStatements = holder.getPendingStatements() + 1;
+    long pendingBytes = this.maxBytes > 0
+        ? holder.getPendingBytes() + STATEMENT_OVERHEAD + this.sizeEstimator.applyAsLong(parameter)
+        : 0L;
+    if ((this.maxStatements > 0 && pendingStatements >= this.maxStatements)
+        || (this.maxBytes > 0 && pendingBytes >= this.maxBytes)) {
+      LOGGER.debug(() -> "Flushing " + pendingStatements + " pending statements of SqlSession [" + sqlSession + "]");
+      holder.setPending(0L, 0L);
+      List<BatchResult> results = sqlSession.flushStatements();
+      if (this.resultHandler != null) {
+        this.resultHandler.accept(results);
+      }
+    } else {
+      holder.setPending(pendingStatements, pendingBytes);
+    }
+  }
+
+  private static long estimateSize(Object parameter) {
+    if (parameter == null) {
+      return 0L;
+    }
+    if (parameter instanceof CharSequence) {
+      return ((CharSequence) parameter).length() * 2L;
+    }
+    if (parameter instanceof byte[]) {
+      return ((byte[]) parameter).length;
+    }
+    if (parameter instanceof Collection) {
+      return ((Collection<?>) parameter).size() * VALUE_SIZE;
+    }
+    if (parameter instanceof Map) {
+      return ((Map<?, ?>) parameter).size() * VALUE_SIZE * 2;
+    }
+    if (parameter instanceof Number || parameter instanceof Boolean || parameter instanceof Date) {
+      return VALUE_SIZE;
+    }
+    // a bean: assume a few properties
+    return VALUE_SIZE * 4;
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.lang.reflect.Constructor;
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@code SQLExceptionTranslator} that remembers which {@code DataAccessException} a
+ * {@code SQLErrorCodeSQLExceptionTranslator} returned for an exception type, SQL state and vendor code, so repeated
+ * errors are translated without walking the error code tables and the fallback translators again.
+ * <p>
+ * A translation is only remembered if the exception can be rebuilt with its {@code (String, Throwable)} constructor and
+ * the rebuilt exception has the same message as the translated one. The translations of exceptions with a SQL string,
+ * of {@code BatchUpdateException}s, which are translated after their next exception, and of databases configured with
+ * a custom translator are never remembered. Neither are those of exceptions that Spring translates from a chained
+ * exception: without a vendor code it takes the one of the first cause that has one, and without a SQL state the one
+ * of the next exception. At most {@value #MAX_CACHED_TRANSLATIONS} translations are kept.
+ */
+final class CachingSQLExceptionTranslator implements SQLExceptionTranslator {
+
+  static final int MAX_CACHED_TRANSLATIONS = 256;
+
+  private final SQLErrorCodeSQLExceptionTranslator delegate;
+
+  private final ConcurrentMap<Key, Optional<Constructor<? extends DataAccessException>>> translations;
+
+  CachingSQLExceptionTranslator(SQLErrorCodeSQLExceptionTranslator delegate) {
+    this.delegate = delegate;
+    this.translations = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public DataAccessException translate(String task, String sql, SQLException ex) {
+    if (sql != null || ex instanceof BatchUpdateException || isTranslatedFromChain(ex)) {
+      return this.delegate.translate(task, sql, ex);
+    }
+    Key key = new Key(ex);
+    Optional<Constructor<? extends DataAccessException>> translation = this.translations.get(key);
+    if (translation != null && translation.isPresent()) {
+      DataAccessException dae = instantiate(translation.get(), task, ex);
+      if (dae != null) {
+        return dae;
+      }
+    }
+    DataAccessException dae = this.delegate.translate(task, null, ex);
+    if (translation == null && dae != null && this.translations.size() < MAX_CACHED_TRANSLATIONS) {
+      this.translations.putIfAbsent(key, rebuildableConstructor(dae, task, ex));
+    }
+    return dae;
+  }
+
+  /**
+   * Tells whether the translation may depend on a chained exception, which the key does not cover.
+   */
+  private static boolean isTranslatedFromChain(SQLException ex) {
+    return (ex.getErrorCode() == 0 && ex.getCause() instanceof SQLException)
+        || (ex.getSQLState() == null && ex.getNextException() != null);
+  }
+
+  private Optional<Constructor<? extends DataAccessException>> rebuildableConstructor(DataAccessException dae,
+      String task, SQLException ex) {
+    if (this.delegate.getSqlErrorCodes() != null
+        && this.delegate.getSqlErrorCodes().getCustomSqlExceptionTranslator() != null) {
+      return Optional.empty();
+    }
+    @SuppressWarnings("unchecked")
+    Constructor<? extends DataAccessException> constructor = (Constructor<? extends DataAccessException>) ClassUtils
+        .getConstructorIfAvailable(dae.getClass(), String.class, Throwable.class);
+    if (constructor == null) {
+      return Optional.empty();
+    }
+    DataAccessException rebuilt = instantiate(constructor, task, ex);
+    return rebuilt != null && Objects.equals(rebuilt.getMessage(), dae.getMessage()) ? Optional.of(constructor)
+        : Optional.empty();
+  }
+
+  private static DataAccessException instantiate(Constructor<? extends DataAccessException> constructor, String task,
+      SQLException ex) {
+    try {
+      // same message as AbstractFallbackSQLExceptionTranslator#buildMessage without SQL
+      return constructor.newInstance(task + "; " + ex.getMessage(), ex);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static final class Key {
+
+    private final Class<?> exceptionType;
+
+    private final String sqlState;
+
+    private final int errorCode;
+
+    Key(SQLException ex) {
+      this.exceptionType = ex.getClass();
+      this.sqlState = ex.getSQLState();
+      this.errorCode = ex.getErrorCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.exceptionType == other.exceptionType && this.errorCode == other.errorCode
+          && Objects.equals(this.sqlState, other.sqlState);
+    }
+
+    @Override
+    public int hashCode() {
+      return (this.exceptionType.hashCode() * 31 + Objects.hashCode(this.sqlState)) * 31 + this.errorCode;
+    }
+  }
+
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notNull;
+import static org.springframework.util.Assert.state;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.metrics.SessionLeakDetector;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+
+/**
+ * Streams the rows of a query to a subscriber as it requests them, pulling them from a MyBatis {@code Cursor}.
+ * <p>
+ * Each subscription opens a dedicated {@code SqlSession} and runs the query when it is subscribed. The session and its
+ * connection are held while the subscriber consumes the rows, no more rows than requested are fetched from the cursor,
+ * and everything is released on completion, on error or when the subscription is cancelled. This allows exporting
+ * large result sets with constant memory. The JDBC fetch size, that is how many rows the driver fetches at once, is the
+ * one set with {@link #setFetchSize(Integer)}, otherwise the one of the mapped statement or the
+ * {@code defaultFetchSize} setting.
+ * <p>
+ * The {@link Subscriber} and {@link Subscription} contracts are the ones of {@code java.util.concurrent.Flow}, so on
+ * Java 9 or later a {@code Flow.Subscriber} can be adapted with a plain delegating class. Rows are emitted on the thread
+ * that subscribed or requested them, and never concurrently.
+ * <p>
+ * When subscribed within a Spring transaction the session uses the transaction connection, so the subscription must
+ * complete before the transaction does.
+ *
+ * @param <T>
+ *          the type of the streamed rows
+ * @since 2.0.7
+ * @see SqlSessionTemplate#selectCursor(String, Object, RowBounds)
+ */
+public class CursorPublisher<T> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CursorPublisher.class);
+
+  private final SqlSessionTemplate sqlSessionTemplate;
+
+  private final String statement;
+
+  private final Object parameter;
+
+  private final RowBounds rowBounds;
+
+  private Integer fetchSize;
+
+  /**
+   * Creates a publisher for the rows of the given statement.
+   *
+   * @param sqlSessionTemplate
+   *          the template whose factory, executor type and exception translator are used
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   */
+  public CursorPublisher(SqlSessionTemplate sqlSessionTemplate, String statement, Object parameter) {
+    this(sqlSessionTemplate, statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   * Creates a publisher for the rows of the given statement.
+   *
+   * @param sqlSessionTemplate
+   *          the template whose factory, executor type and exception translator are used
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @param rowBounds
+   *          bounds to limit object retrieval
+   */
+  public CursorPublisher(SqlSessionTemplate sqlSessionTemplate, String statement, Object parameter,
+      RowBounds rowBounds) {
+    notNull(sqlSessionTemplate, "Property 'sqlSessionTemplate' is required");
+    notNull(statement, "Property 'statement' is required");
+    notNull(rowBounds, "Property 'rowBounds' is required");
+    this.sqlSessionTemplate = sqlSessionTemplate;
+    this.statement = statement;
+    this.parameter = parameter;
+    this.rowBounds = rowBounds;
+  }
+
+  /**
+   * Sets the JDBC fetch size of the query, overriding the one of the mapped statement. Some drivers need a specific
+   * value to stream the rows instead of loading them all, like {@code Integer.MIN_VALUE} for MySQL Connector/J. The
+   * sessions of the factory must be {@code DefaultSqlSession}s, as the ones of a {@code DefaultSqlSessionFactory} are.
+   *
+   * @param fetchSize
+   *          the fetch size, or {@code null} to use the one of the mapped statement
+   */
+  public void setFetchSize(Integer fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  public Integer getFetchSize() {
+    return this.fetchSize;
+  }
+
+  /**
+   * Opens a dedicated session, runs the query and starts emitting rows to the subscriber as it requests them.
+   *
+   * @param subscriber
+   *          the subscriber of the rows
+   */
+  public void subscribe(Subscriber<? super T> subscriber) {
+    notNull(subscriber, "Parameter 'subscriber' must be not null");
+
+    SqlSession sqlSession = null;
+    Cursor<T> cursor;
+    try {
+      sqlSession = this.sqlSessionTemplate.getSqlSessionFactory()
+          .openSession(this.sqlSessionTemplate.getExecutorType());
+      SessionLeakDetector.acquired(sqlSession, "CursorPublisher");
+      cursor = selectCursor(sqlSession);
+    } catch (RuntimeException e) {
+      if (sqlSession != null) {
+        SessionLeakDetector.released(sqlSession);
+        sqlSession.close();
+      }
+      subscriber.onSubscribe(CancelledSubscription.INSTANCE);
+      subscriber.onError(translate(e, this.sqlSessionTemplate.getPersistenceExceptionTranslator()));
+      return;
+    }
+
+    CursorSubscription<T> subscription = new CursorSubscription<>(subscriber, sqlSession, cursor,
+        this.sqlSessionTemplate);
+    subscriber.onSubscribe(subscription);
+  }
+
+  private Cursor<T> selectCursor(SqlSession sqlSession) {
+    Integer currentFetchSize = this.fetchSize;
+    if (currentFetchSize == null) {
+      return sqlSession.selectCursor(this.statement, this.parameter, this.rowBounds);
+    }
+    state(sqlSession instanceof DefaultSqlSession, () -> "Cannot set the fetch size of SqlSession [" + sqlSession
+        + "], which is not a DefaultSqlSession");
+    // same as DefaultSqlSession#selectCursor, with a copy of the mapped statement that has the fetch size
+    try {
+      MappedStatement ms = withFetchSize(sqlSession.getConfiguration().getMappedStatement(this.statement),
+          currentFetchSize);
+      Executor executor = (Executor) SystemMetaObject.forObject(sqlSession).getValue("executor");
+      return executor.queryCursor(ms, ParamNameResolver.wrapToMapIfCollection(this.parameter, null), this.rowBounds);
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
+  private static MappedStatement withFetchSize(MappedStatement ms, Integer fetchSize) {
+    return new MappedStatement.Builder(ms.getConfiguration(), ms.getId(), ms.getSqlSource(), ms.getSqlCommandType())
+        .resource(ms.getResource()).fetchSize(fetchSize).timeout(ms.getTimeout()).statementType(ms.getStatementType())
+        .resultSetType(ms.getResultSetType()).parameterMap(ms.getParameterMap()).resultMaps(ms.getResultMaps())
+        .cache(ms.getCache()).flushCacheRequired(ms.isFlushCacheRequired()).useCache(ms.isUseCache())
+        .resultOrdered(ms.isResultOrdered()).keyGenerator(ms.getKeyGenerator())
+        .keyProperty(delimited(ms.getKeyProperties())).keyColumn(delimited(ms.getKeyColumns()))
+        .databaseId(ms.getDatabaseId()).lang(ms.getLang()).resultSets(delimited(ms.getResultSets())).build();
+  }
+
+  private static String delimited(String[] values) {
+    return values != null ? String.join(",", values) : null;
+  }
+
+  /**
+   * Translates an exception thrown while fetching rows. A {@code Cursor} wraps the {@code SQLException}s thrown while
+   * iterating in plain runtime exceptions, so they are handed to the translator as {@code PersistenceException}s.
+   */
+  static RuntimeException translate(RuntimeException e, PersistenceExceptionTranslator translator) {
+    if (translator == null) {
+      return e;
+    }
+    PersistenceException persistenceException = null;
+    if (e instanceof PersistenceException) {
+      persistenceException = (PersistenceException) e;
+    } else if (e.getCause() instanceof SQLException) {
+      persistenceException = new PersistenceException(e.getCause().getMessage(), e.getCause());
+    }
+    if (persistenceException != null) {
+      RuntimeException translated = translator.translateExceptionIfPossible(persistenceException);
+      if (translated != null) {
+        return translated;
+      }
+    }
+    return e;
+  }
+
+  /**
+   * Receives the rows of a {@link CursorPublisher}, with the same contract as {@code java.util.concurrent.Flow}'s
+   * subscriber.
+   *
+   * @param <T>
+   *          the type of the received rows
+   */
+  public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+
+  }
+
+  /**
+   * Links a {@link Subscriber} to a {@link CursorPublisher}, with the same contract as
+   * {@code java.util.concurrent.Flow}'s subscription.
+   */
+  public interface Subscription {
+
+    void request(long n);
+
+    void cancel();
+
+  }
+
+  private enum CancelledSubscription implements Subscription {
+    INSTANCE;
+
+    @Override
+    public void request(long n) {
+      // nothing to emit
+    }
+
+    @Override
+    public void cancel() {
+      // nothing to release
+    }
+  }
+
+  private static final class CursorSubscription<T> implements Subscription {
+
+    private final Subscriber<? super T> subscriber;
+
+    private final SqlSession sqlSession;
+
+    private final Cursor<T> cursor;
+
+    private final Iterator<T> iterator;
+
+    private final SqlSessionTemplate sqlSessionTemplate;
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable invalidRequest;
+
+    CursorSubscription(Subscriber<? super T> subscriber, SqlSession sqlSession, Cursor<T> cursor,
+        SqlSessionTemplate sqlSessionTemplate) {
+      this.subscriber = subscriber;
+      this.sqlSession = sqlSession;
+      this.cursor = cursor;
+      this.iterator = cursor.iterator();
+      this.sqlSessionTemplate = sqlSessionTemplate;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        this.invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+      } else {
+        long current;
+        long next;
+        do {
+          current = this.requested.get();
+          if (current == Long.MAX_VALUE) {
+            break;
+          }
+          next = current + n;
+          if (next < 0) {
+            next = Long.MAX_VALUE;
+          }
+        } while (!this.requested.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      this.cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (this.wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (this.released.get()) {
+          return;
+        }
+        if (this.cancelled) {
+          release();
+          return;
+        }
+        if (this.invalidRequest != null) {
+          release();
+          this.subscriber.onError(this.invalidRequest);
+          return;
+        }
+        long demand = this.requested.get();
+        long emitted = 0;
+        while (emitted != demand) {
+          if (this.cancelled) {
+            release();
+            return;
+          }
+          T item;
+          try {
+            if (!this.iterator.hasNext()) {
+              release();
+              this.subscriber.onComplete();
+              return;
+            }
+            item = this.iterator.next();
+          } catch (RuntimeException e) {
+            release();
+            this.subscriber.onError(translate(e, this.sqlSessionTemplate.getPersistenceExceptionTranslator()));
+            return;
+          }
+          try {
+            this.subscriber.onNext(item);
+          } catch (RuntimeException | Error e) {
+            // a subscriber that throws breaks its contract, the subscription is cancelled
+            this.cancelled = true;
+            release();
+            throw e;
+          }
+          emitted++;
+        }
+        if (emitted != 0 && demand != Long.MAX_VALUE) {
+          this.requested.addAndGet(-emitted);
+        }
+        missed = this.wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void release() {
+      if (!this.released.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        this.cursor.close();
+        ReadOnlyCompletion completion = this.sqlSessionTemplate.getReadOnlyCompletion();
+        if (completion == ReadOnlyCompletion.COMMIT) {
+          this.sqlSession.commit(true);
+        } else if (completion == ReadOnlyCompletion.ROLLBACK) {
+          this.sqlSession.rollback(true);
+        }
+      } catch (Exception e) {
+        LOGGER.warn(() -> "Could not complete SqlSession [" + this.sqlSession + "] of a cursor publisher: " + e);
+      } finally {
+        LOGGER.debug(() -> "Closing SqlSession [" + this.sqlSession + "] of a cursor publisher");
+        SessionLeakDetector.released(this.sqlSession);
+        this.sqlSession.close();
+      }
+    }
+  }
+
+}
@@ -16,6 +16,9 @@
 package org.mybatis.spring;
 
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 import javax.sql.DataSource;
@@ -27,6 +30,7 @@ import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 import org.springframework.transaction.TransactionException;
+import org.springframework.util.ConcurrentReferenceHashMap;
 
 /**
  * Default exception translator.
@@ -34,13 +38,20 @@ import org.springframework.transaction.TransactionException;
  * Translates MyBatis SqlSession returned exception into a Spring {@code DataAccessException} using Spring's
  * {@code SQLExceptionTranslator} Can load {@code SQLExceptionTranslator} eagerly or when the first exception is
  * translated.
+ * <p>
+ * The translators created for a {@code DataSource} are shared by all the instances of this class, so the error codes
+ * of a database are looked up once, and they remember the translation of recurring errors.
  *
  * @author Eduardo Macarron
  */
 public class MyBatisExceptionTranslator implements PersistenceExceptionTranslator {
 
+  private static final Map<DataSource, SQLExceptionTranslator> SHARED_TRANSLATORS = new ConcurrentReferenceHashMap<>(
+      16);
+
   private final Supplier<SQLExceptionTranslator> exceptionTranslatorSupplier;
-  private SQLExceptionTranslator exceptionTranslator;
+  private volatile SQLExceptionTranslator exceptionTranslator;
+  private final Lock initLock = new ReentrantLock();
 
   /**
    * Creates a new {@code PersistenceExceptionTranslator} instance with {@code SQLErrorCodeSQLExceptionTranslator}.
@@ -52,7 +63,9 @@ public class MyBatisExceptionTranslator implements PersistenceExceptionTranslato
    *          exceptions.
    */
   public MyBatisExceptionTranslator(DataSource dataSource, boolean exceptionTranslatorLazyInit) {
-    this(() -> new SQLErrorCodeSQLExceptionTranslator(dataSource), exceptionTranslatorLazyInit);
+    this(() -> SHARED_TRANSLATORS.computeIfAbsent(dataSource,
+        key -> new CachingSQLExceptionTranslator(new SQLErrorCodeSQLExceptionTranslator(key))),
+        exceptionTranslatorLazyInit);
   }
 
   /**
@@ -85,10 +98,9 @@ public class MyBatisExceptionTranslator implements PersistenceExceptionTranslato
         e = (PersistenceException) e.getCause();
       }
       if (e.getCause() instanceof SQLException) {
-        this.initExceptionTranslator();
         String task = e.getMessage() + "\n";
         SQLException se = (SQLException) e.getCause();
-        DataAccessException dae = this.exceptionTranslator.translate(task, null, se);
+        DataAccessException dae = this.initExceptionTranslator().translate(task, null, se);
         return dae != null ? dae : new UncategorizedSQLException(task, null, se);
       } else if (e.getCause() instanceof TransactionException) {
         throw (TransactionException) e.getCause();
@@ -99,12 +111,25 @@ public class MyBatisExceptionTranslator implements PersistenceExceptionTranslato
   }
 
   /**
-   * Initializes the internal translator reference.
+   * Initializes the internal translator reference. Only the first translations may contend on the lock. The supplier
+   * may read the error codes from the database, so a lock is used rather than a {@code synchronized} block, which would
+   * pin the carrier of a virtual thread during that I/O.
    */
-  private synchronized void initExceptionTranslator() {
-    if (this.exceptionTranslator == null) {
-      this.exceptionTranslator = exceptionTranslatorSupplier.get();
+  private SQLExceptionTranslator initExceptionTranslator() {
+    SQLExceptionTranslator translator = this.exceptionTranslator;
+    if (translator == null) {
+      this.initLock.lock();
+      try {
+        translator = this.exceptionTranslator;
+        if (translator == null) {
+          translator = exceptionTranslatorSupplier.get();
+          this.exceptionTranslator = translator;
+        }
+      } finally {
+        this.initLock.unlock();
+      }
     }
+    return translator;
   }
 
 }
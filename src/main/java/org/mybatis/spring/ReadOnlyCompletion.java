@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+/**
+ * How a {@code SqlSessionTemplate} completes a non transactional {@code SqlSession} after running a read-only
+ * statement, that is a {@code SELECT} statement that is not a stored procedure call.
+ *
+ * @since 2.0.7
+ * @see SqlSessionTemplate#setReadOnlyCompletion(ReadOnlyCompletion)
+ */
+public enum ReadOnlyCompletion {
+
+  /**
+   * Forces a commit as after any other statement. This is the default.
+   */
+  COMMIT,
+
+  /**
+   * Forces a rollback instead of a commit. This is meant for drivers that require the unit of work to be ended before
+   * the connection is closed and that handle a rollback without work more cheaply than a commit. Note that it also
+   * discards the entries the statement would have put in the second level cache.
+   */
+  ROLLBACK,
+
+  /**
+   * Just closes the session, which saves the round-trip to the database. The connection is returned to the pool with
+   * the read-only unit of work left open, so this should only be used with pools or drivers that take care of it.
+   */
+  NONE
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+/**
+ * How a {@link RoutingSqlSessionTemplate} picks the replica that runs a read.
+ *
+ * @since 2.0.7
+ */
+public enum ReplicaSelection {
+
+  /**
+   * Uses the replicas one after the other. This is the default.
+   */
+  ROUND_ROBIN,
+
+  /**
+   * Uses the replica that currently runs the fewest calls of the template, which favors the replicas that answer faster.
+   */
+  LEAST_IN_FLIGHT
+
+}
@@ -0,0 +1,544 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notEmpty;
+import static org.springframework.util.Assert.notNull;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.metrics.SlowStatementLog;
+import org.mybatis.spring.metrics.StatementMetricsRecorder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Thread safe, Spring managed, {@code SqlSession} that sends reads to read replicas and everything else to a primary
+ * database, keeping each transaction on a single database.
+ * <p>
+ * It is a {@link SqlSessionTemplate} of the {@code SqlSessionFactory} of the primary, whose calls may be run by the
+ * {@code SqlSessionTemplate} of one of the replicas instead:
+ * <ul>
+ * <li>an actual transaction, or a read-only transaction synchronization like a read-only
+ * {@code PROPAGATION_SUPPORTS} scope, runs on one database, picked by its first call: the primary if a
+ * {@code SqlSession} of the primary is already bound to it or if it is a read-write transaction, otherwise the replica
+ * whose {@code SqlSession} is bound to it or a replica picked then. All its calls, reads, writes and flushes alike,
+ * run on that database until it ends;</li>
+ * <li>within another transaction synchronization, like a {@code PROPAGATION_SUPPORTS} scope, {@code SELECT} statements
+ * that do not call a stored procedure run on a replica picked by the first of them, and all the other calls on the
+ * primary, as do the reads that follow them so that they see what was written;</li>
+ * <li>otherwise, writes, flushes and all the other calls that are not reads run on the primary. Reads run on the
+ * primary or on the replica whose {@code SqlSession} is bound to the current {@link SqlSessionScope}, and outside of
+ * a scope {@code SELECT} statements that do not call a stored procedure run on a replica picked for each call.</li>
+ * </ul>
+ * Replicas are picked according to the {@link ReplicaSelection}. All the factories must use the same mappers, and the
+ * {@code Configuration} of the primary is the one used to create mappers. Note that when a read-only transaction is
+ * managed by a {@code DataSourceTransactionManager} of the primary, the connection of the replica only joins the
+ * transaction synchronization: it is released at its end but not committed.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSession" class="org.mybatis.spring.RoutingSqlSessionTemplate">
+ *   <constructor-arg index="0" ref="primarySqlSessionFactory" />
+ *   <constructor-arg index="1">
+ *     <list>
+ *       <ref bean="replica1SqlSessionFactory" />
+ *       <ref bean="replica2SqlSessionFactory" />
+ *     </list>
+ *   </constructor-arg>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionTemplate
+ */
+public class RoutingSqlSessionTemplate extends SqlSessionTemplate {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RoutingSqlSessionTemplate.class);
+
+  private final Object resourceKey = new Object();
+
+  private final Replica[] replicas;
+
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+
+  /**
+   * Constructs a routing template with the default {@code ExecutorType} of the primary factory.
+   *
+   * @param primarySqlSessionFactory
+   *          the factory of the primary database
+   * @param replicaSqlSessionFactories
+   *          the factories of the read replicas
+   */
+  public RoutingSqlSessionTemplate(SqlSessionFactory primarySqlSessionFactory,
+      List<SqlSessionFactory> replicaSqlSessionFactories) {
+    this(primarySqlSessionFactory, replicaSqlSessionFactories,
+        primarySqlSessionFactory.getConfiguration().getDefaultExecutorType());
+  }
+
+  /**
+   * Constructs a routing template whose sessions all use the given {@code ExecutorType}.
+   *
+   * @param primarySqlSessionFactory
+   *          the factory of the primary database
+   * @param replicaSqlSessionFactories
+   *          the factories of the read replicas
+   * @param executorType
+   *          an executor type on session
+   */
+  public RoutingSqlSessionTemplate(SqlSessionFactory primarySqlSessionFactory,
+      List<SqlSessionFactory> replicaSqlSessionFactories, ExecutorType executorType) {
+    super(primarySqlSessionFactory, executorType);
+    notEmpty(replicaSqlSessionFactories, "Property 'replicaSqlSessionFactories' must contain at least one factory");
+    this.replicas = new Replica[replicaSqlSessionFactories.size()];
+    for (int i = 0; i < this.replicas.length; i++) {
+      this.replicas[i] = new Replica(new SqlSessionTemplate(replicaSqlSessionFactories.get(i), executorType));
+    }
+  }
+
+  /**
+   * Sets how the replica that runs a read is picked. Defaults to {@link ReplicaSelection#ROUND_ROBIN}.
+   *
+   * @param replicaSelection
+   *          the selection of the replicas
+   */
+  public void setReplicaSelection(ReplicaSelection replicaSelection) {
+    notNull(replicaSelection, "Property 'replicaSelection' is required");
+    this.replicaSelection = replicaSelection;
+  }
+
+  public ReplicaSelection getReplicaSelection() {
+    return this.replicaSelection;
+  }
+
+  /**
+   * Sets how a non transactional {@code SqlSession} is completed after a read-only statement, on all the databases.
+   *
+   * @param readOnlyCompletion
+   *          the completion to apply after read-only statements
+   * @see SqlSessionTemplate#setReadOnlyCompletion(ReadOnlyCompletion)
+   */
+  @Override
+  public void setReadOnlyCompletion(ReadOnlyCompletion readOnlyCompletion) {
+    super.setReadOnlyCompletion(readOnlyCompletion);
+    for (Replica replica : this.replicas) {
+      replica.template.setReadOnlyCompletion(readOnlyCompletion);
+    }
+  }
+
+  /**
+   * Sets the recorder that receives the latency of every statement, on all the databases.
+   *
+   * @param statementMetricsRecorder
+   *          the recorder of the statement latencies, or {@code null} to disable measuring
+   * @see SqlSessionTemplate#setStatementMetricsRecorder(StatementMetricsRecorder)
+   */
+  @Override
+  public void setStatementMetricsRecorder(StatementMetricsRecorder statementMetricsRecorder) {
+    super.setStatementMetricsRecorder(statementMetricsRecorder);
+    for (Replica replica : this.replicas) {
+      replica.template.setStatementMetricsRecorder(statementMetricsRecorder);
+    }
+  }
+
+  /**
+   * Sets the log that reports the slow statements, on all the databases.
+   *
+   * @param slowStatementLog
+   *          the log of the slow statements, or {@code null} to disable it
+   * @see SqlSessionTemplate#setSlowStatementLog(SlowStatementLog)
+   */
+  @Override
+  public void setSlowStatementLog(SlowStatementLog slowStatementLog) {
+    super.setSlowStatementLog(slowStatementLog);
+    for (Replica replica : this.replicas) {
+      replica.template.setSlowStatementLog(slowStatementLog);
+    }
+  }
+
+  /**
+   * Sets the coalescer that lets identical concurrent reads share one execution, on all the databases.
+   *
+   * @param selectCoalescer
+   *          the coalescer of the reads, or {@code null} to disable coalescing
+   * @see SqlSessionTemplate#setSelectCoalescer(SelectCoalescer)
+   */
+  @Override
+  public void setSelectCoalescer(SelectCoalescer selectCoalescer) {
+    super.setSelectCoalescer(selectCoalescer);
+    for (Replica replica : this.replicas) {
+      replica.template.setSelectCoalescer(selectCoalescer);
+    }
+  }
+
+  @Override
+  public <T> T selectOne(String statement) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectOne(statement)) : super.selectOne(statement);
+  }
+
+  @Override
+  public <T> T selectOne(String statement, Object parameter) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectOne(statement, parameter))
+        : super.selectOne(statement, parameter);
+  }
+
+  @Override
+  public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectMap(statement, mapKey))
+        : super.selectMap(statement, mapKey);
+  }
+
+  @Override
+  public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectMap(statement, parameter, mapKey))
+        : super.selectMap(statement, parameter, mapKey);
+  }
+
+  @Override
+  public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectMap(statement, parameter, mapKey, rowBounds))
+        : super.selectMap(statement, parameter, mapKey, rowBounds);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectCursor(statement))
+        : super.selectCursor(statement);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectCursor(statement, parameter))
+        : super.selectCursor(statement, parameter);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectCursor(statement, parameter, rowBounds))
+        : super.selectCursor(statement, parameter, rowBounds);
+  }
+
+  @Override
+  public <E> List<E> selectList(String statement) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectList(statement)) : super.selectList(statement);
+  }
+
+  @Override
+  public <E> List<E> selectList(String statement, Object parameter) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectList(statement, parameter))
+        : super.selectList(statement, parameter);
+  }
+
+  @Override
+  public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.selectList(statement, parameter, rowBounds))
+        : super.selectList(statement, parameter, rowBounds);
+  }
+
+  @Override
+  public void select(String statement, ResultHandler handler) {
+    select(statement, null, RowBounds.DEFAULT, handler);
+  }
+
+  @Override
+  public void select(String statement, Object parameter, ResultHandler handler) {
+    select(statement, parameter, RowBounds.DEFAULT, handler);
+  }
+
+  @Override
+  public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+    Replica replica = route(statement, true);
+    if (replica == null) {
+      super.select(statement, parameter, rowBounds, handler);
+      return;
+    }
+    replica.invoke(template -> {
+      template.select(statement, parameter, rowBounds, handler);
+      return null;
+    });
+  }
+
+  /**
+   * Retrieves the rows of a query lazily as a {@code Stream}, from a replica when the query is routed to one.
+   *
+   * @see SqlSessionTemplate#selectStream(String, Object, RowBounds)
+   */
+  @Override
+  public <T> Stream<T> selectStream(String statement, Object parameter, RowBounds rowBounds) {
+    Replica replica = route(statement, true);
+    return replica != null ? replica.invoke(template -> template.<T> selectStream(statement, parameter, rowBounds))
+        : super.selectStream(statement, parameter, rowBounds);
+  }
+
+  @Override
+  public int insert(String statement) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.insert(statement)) : super.insert(statement);
+  }
+
+  @Override
+  public int insert(String statement, Object parameter) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.insert(statement, parameter))
+        : super.insert(statement, parameter);
+  }
+
+  @Override
+  public int update(String statement) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.update(statement)) : super.update(statement);
+  }
+
+  @Override
+  public int update(String statement, Object parameter) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.update(statement, parameter))
+        : super.update(statement, parameter);
+  }
+
+  @Override
+  public int delete(String statement) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.delete(statement)) : super.delete(statement);
+  }
+
+  @Override
+  public int delete(String statement, Object parameter) {
+    Replica replica = route(statement, false);
+    return replica != null ? replica.invoke(template -> template.delete(statement, parameter))
+        : super.delete(statement, parameter);
+  }
+
+  @Override
+  public Connection getConnection() {
+    Replica replica = route(null, false);
+    return replica != null ? replica.invoke(SqlSessionTemplate::getConnection) : super.getConnection();
+  }
+
+  @Override
+  public List<BatchResult> flushStatements() {
+    Replica replica = route(null, false);
+    return replica != null ? replica.invoke(SqlSessionTemplate::flushStatements) : super.flushStatements();
+  }
+
+  /**
+   * Clears the local session cache of the primary and of the replicas whose {@code SqlSession} is bound to the current
+   * thread. No {@code SqlSession} is bound by the call, so it does not change where the next calls run.
+   */
+  @Override
+  public void clearCache() {
+    if (isBound(getSqlSessionFactory())) {
+      super.clearCache();
+    }
+    for (Replica replica : this.replicas) {
+      if (replica.isBound()) {
+        replica.template.clearCache();
+      }
+    }
+  }
+
+  /**
+   * Returns the replica that runs the given call, or {@code null} if it runs on the primary.
+   *
+   * @param statement
+   *          the statement of the call, or {@code null} if it does not run one
+   * @param read
+   *          whether the call is a read
+   */
+  private Replica route(String statement, boolean read) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return read ? replicaFor(statement) : null;
+    }
+    boolean pinAll = TransactionSynchronizationManager.isActualTransactionActive()
+        || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    SqlSessionFactory factory = (SqlSessionFactory) TransactionSynchronizationManager.getResource(this.resourceKey);
+    if (!pinAll && !(read && isReadOnlyStatement(statement))) {
+      // nothing keeps a write on a replica: it runs on the primary, and so do the reads that follow it
+      if (factory != getSqlSessionFactory()) {
+        pin(factory, getSqlSessionFactory());
+      }
+      return null;
+    }
+    if (factory == null) {
+      Replica replica = pick();
+      pin(null, replica != null ? replica.template.getSqlSessionFactory() : getSqlSessionFactory());
+      return replica;
+    }
+    for (Replica replica : this.replicas) {
+      if (replica.template.getSqlSessionFactory() == factory) {
+        return replica;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Picks the database of the current transaction synchronization, on its first call.
+   */
+  private Replica pick() {
+    if (isBound(getSqlSessionFactory()) || (TransactionSynchronizationManager.isActualTransactionActive()
+        && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())) {
+      return null;
+    }
+    for (Replica replica : this.replicas) {
+      if (replica.isBound()) {
+        return replica;
+      }
+    }
+    return selectReplica();
+  }
+
+  /**
+   * Binds the factory that runs the calls of the current transaction synchronization until it ends.
+   */
+  private void pin(SqlSessionFactory current, SqlSessionFactory factory) {
+    LOGGER.debug(() -> "Routing the calls of the current transaction to SqlSessionFactory [" + factory + "]");
+    if (current != null) {
+      TransactionSynchronizationManager.unbindResource(this.resourceKey);
+    } else {
+      TransactionSynchronizationManager.registerSynchronization(new RouteSynchronization(this.resourceKey));
+    }
+    TransactionSynchronizationManager.bindResource(this.resourceKey, factory);
+  }
+
+  /**
+   * Returns the replica that runs the given read outside of a transaction synchronization, or {@code null} if it runs
+   * on the primary.
+   */
+  private Replica replicaFor(String statement) {
+    if (isBound(getSqlSessionFactory())) {
+      return null;
+    }
+    // a SqlSessionScope stays on the replica it started to read from
+    for (Replica replica : this.replicas) {
+      if (replica.isBound()) {
+        return replica;
+      }
+    }
+    return isReadOnlyStatement(statement) ? selectReplica() : null;
+  }
+
+  private Replica selectReplica() {
+    int count = this.replicas.length;
+    if (count == 1) {
+      return this.replicas[0];
+    }
+    int first = Math.floorMod(this.nextReplica.getAndIncrement(), count);
+    if (this.replicaSelection == ReplicaSelection.ROUND_ROBIN) {
+      return this.replicas[first];
+    }
+    // start from the next replica in turn so ties are spread evenly
+    Replica selected = this.replicas[first];
+    int fewest = selected.inFlight.get();
+    for (int i = 1; i < count && fewest > 0; i++) {
+      Replica replica = this.replicas[(first + i) % count];
+      int inFlight = replica.inFlight.get();
+      if (inFlight < fewest) {
+        selected = replica;
+        fewest = inFlight;
+      }
+    }
+    return selected;
+  }
+
+  private static boolean isBound(SqlSessionFactory sessionFactory) {
+    return TransactionSynchronizationManager.getResource(sessionFactory) != null
+        || SqlSessionScope.getHolder(sessionFactory) != null;
+  }
+
+  /**
+   * Unbinds the factory of a transaction synchronization while it is suspended and once it has ended.
+   */
+  private static final class RouteSynchronization extends TransactionSynchronizationAdapter {
+
+    private final Object resourceKey;
+
+    private Object factory;
+
+    RouteSynchronization(Object resourceKey) {
+      this.resourceKey = resourceKey;
+    }
+
+    @Override
+    public void suspend() {
+      this.factory = TransactionSynchronizationManager.unbindResourceIfPossible(this.resourceKey);
+    }
+
+    @Override
+    public void resume() {
+      if (this.factory != null) {
+        TransactionSynchronizationManager.bindResource(this.resourceKey, this.factory);
+      }
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.resourceKey);
+    }
+  }
+
+  private static final class Replica {
+
+    private final SqlSessionTemplate template;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Replica(SqlSessionTemplate template) {
+      this.template = template;
+    }
+
+    boolean isBound() {
+      return RoutingSqlSessionTemplate.isBound(this.template.getSqlSessionFactory());
+    }
+
+    <T> T invoke(Function<SqlSessionTemplate, T> call) {
+      this.inFlight.incrementAndGet();
+      try {
+        return call.apply(this.template);
+      } finally {
+        this.inFlight.decrementAndGet();
+      }
+    }
+  }
+
+}
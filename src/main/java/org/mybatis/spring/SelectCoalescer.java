@@ -0,0 +1,215 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notEmpty;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * Coalesces identical reads that run concurrently through a {@code SqlSessionTemplate}, so only one of them hits the
+ * database.
+ * <p>
+ * When a {@code selectOne}, {@code selectList} or {@code selectMap} of one of the configured statements is called
+ * outside a transaction while the same method is already running the same statement of the same
+ * {@code SqlSessionFactory} with an equal parameter, the same {@code RowBounds} and the same map key, the call waits
+ * for the running one and returns its result instead of running the statement again. This protects the database and
+ * the connection pool from bursts of identical lookups. Parameters are compared with {@code equals()}, so parameter
+ * types that do not implement it are never coalesced.
+ * <p>
+ * The callers of a coalesced call share the same result object. If they may modify it, set a result copier, which is
+ * then applied to the result handed to every caller. Failures are shared too: the callers that waited for a call that
+ * failed receive the very exception thrown by that call, so they can handle it as if they had run it. Its stack trace
+ * is the one of the thread that ran the call.
+ *
+ * <pre class="code">
+ * SelectCoalescer coalescer = new SelectCoalescer(Arrays.asList("org.example.ConfigMapper.findSetting"));
+ * coalescer.setResultCopier(r -&gt; r instanceof List ? new ArrayList&lt;&gt;((List&lt;?&gt;) r) : r);
+ * sqlSessionTemplate.setSelectCoalescer(coalescer);
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionTemplate#setSelectCoalescer(SelectCoalescer)
+ */
+public class SelectCoalescer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SelectCoalescer.class);
+
+  private final Set<String> statements;
+
+  private final ConcurrentMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  private UnaryOperator<Object> resultCopier;
+
+  /**
+   * Creates a coalescer for the given statements.
+   *
+   * @param statements
+   *          the ids of the mapped statements to coalesce
+   */
+  public SelectCoalescer(Collection<String> statements) {
+    notEmpty(statements, "Property 'statements' must contain at least one statement");
+    this.statements = Collections.unmodifiableSet(new HashSet<>(statements));
+  }
+
+  public Set<String> getStatements() {
+    return this.statements;
+  }
+
+  /**
+   * Sets the function that copies the shared result for each caller. By default all the callers receive the same
+   * object.
+   *
+   * @param resultCopier
+   *          the copier of the results, or {@code null} to share them
+   */
+  public void setResultCopier(UnaryOperator<Object> resultCopier) {
+    this.resultCopier = resultCopier;
+  }
+
+  public UnaryOperator<Object> getResultCopier() {
+    return this.resultCopier;
+  }
+
+  /**
+   * Returns whether the calls of the given statement are coalesced.
+   *
+   * @param statement
+   *          the id of the mapped statement
+   * @return {@code true} if the statement is coalesced
+   */
+  public boolean isCoalesced(String statement) {
+    return this.statements.contains(statement);
+  }
+
+  /**
+   * Runs the call, or waits for an identical call that is already running.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T execute(SqlSessionFactory sqlSessionFactory, Method method, String statement, Object parameter, String mapKey,
+      RowBounds rowBounds, Supplier<T> call) {
+    Key key = new Key(sqlSessionFactory, method, statement, parameter, mapKey, rowBounds);
+    CompletableFuture<Object> created = new CompletableFuture<>();
+    CompletableFuture<Object> running = this.inFlight.putIfAbsent(key, created);
+    if (running != null) {
+      LOGGER.debug(() -> "Joining running call of statement [" + statement + "]");
+      return (T) copy(await(running));
+    }
+    Object result;
+    try {
+      result = call.get();
+      created.complete(result);
+    } catch (RuntimeException | Error e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.inFlight.remove(key, created);
+    }
+    return (T) copy(result);
+  }
+
+  private Object copy(Object result) {
+    UnaryOperator<Object> copier = this.resultCopier;
+    return copier != null && result != null ? copier.apply(result) : result;
+  }
+
+  private static Object await(CompletableFuture<Object> running) {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      // the call only throws unchecked exceptions, which the waiters get as the caller that ran it did
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw (RuntimeException) cause;
+    }
+  }
+
+  /**
+   * The {@code SqlSession} methods whose calls are coalesced, as they return different results for the same statement.
+   */
+  enum Method {
+    SELECT_ONE, SELECT_LIST, SELECT_MAP
+  }
+
+  private static final class Key {
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final Method method;
+
+    private final String statement;
+
+    private final Object parameter;
+
+    private final String mapKey;
+
+    private final int offset;
+
+    private final int limit;
+
+    private final int hashCode;
+
+    Key(SqlSessionFactory sqlSessionFactory, Method method, String statement, Object parameter, String mapKey,
+        RowBounds rowBounds) {
+      this.sqlSessionFactory = sqlSessionFactory;
+      this.method = method;
+      this.statement = statement;
+      this.parameter = parameter;
+      this.mapKey = mapKey;
+      this.offset = rowBounds.getOffset();
+      this.limit = rowBounds.getLimit();
+      this.hashCode = Objects.hash(sqlSessionFactory, method, statement, parameter, mapKey, this.offset, this.limit);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.sqlSessionFactory == other.sqlSessionFactory && this.method == other.method
+          && this.offset == other.offset && this.limit == other.limit && this.statement.equals(other.statement)
+          && Objects.equals(this.mapKey, other.mapKey) && Objects.equals(this.parameter, other.parameter);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hashCode;
+    }
+  }
+
+}
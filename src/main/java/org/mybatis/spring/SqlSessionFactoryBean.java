@@ -51,7 +51,9 @@ import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.TypeHandler;
 import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.transaction.ShardRoutingTransactionFactory;
 import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
+import org.mybatis.spring.transaction.TransactionAwareCache;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationEvent;
@@ -662,6 +664,13 @@ public class SqlSessionFactoryBean
       LOGGER.debug(() -> "Property 'mapperLocations' was not specified.");
     }
 
+    // the cache entries of a transaction are published once it has committed
+    TransactionAwareCache.decorateCaches(targetConfiguration);
+
+    if (this.transactionFactory instanceof ShardRoutingTransactionFactory) {
+      ((ShardRoutingTransactionFactory) this.transactionFactory).checkCaches(targetConfiguration);
+    }
+
     return this.sqlSessionFactoryBuilder.build(targetConfiguration);
   }
 
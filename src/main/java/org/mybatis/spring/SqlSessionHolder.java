@@ -17,15 +17,24 @@ package org.mybatis.spring;
 
 import static org.springframework.util.Assert.notNull;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.SystemMetaObject;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
 import org.springframework.transaction.support.ResourceHolderSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Used to keep current {@code SqlSession} in {@code TransactionSynchronizationManager}. The {@code SqlSessionFactory}
- * that created that {@code SqlSession} is used as a key. {@code ExecutorType} is also kept to be able to check if the
- * user is trying to change it during a TX (that is not allowed) and throw a Exception in that case.
+ * that created that {@code SqlSession} is used as a key. {@code ExecutorType} is also kept so that a transaction that
+ * asks for another {@code ExecutorType} gets an additional {@code SqlSession} of that type, held by the same holder
+ * and sharing the transaction connection.
  *
  * @author Hunter Presnall
  * @author Eduardo Macarron
@@ -38,6 +47,16 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
 
   private final PersistenceExceptionTranslator exceptionTranslator;
 
+  private final Map<ExecutorType, SqlSession> additionalSessions = new EnumMap<>(ExecutorType.class);
+
+  private ExecutorType lastExecutorType;
+
+  private long pendingStatements;
+
+  private long pendingBytes;
+
+  private boolean written;
+
   /**
    * Creates a new holder instance.
    *
@@ -57,6 +76,7 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
     this.sqlSession = sqlSession;
     this.executorType = executorType;
     this.exceptionTranslator = exceptionTranslator;
+    this.lastExecutorType = executorType;
   }
 
   public SqlSession getSqlSession() {
@@ -71,4 +91,115 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
     return exceptionTranslator;
   }
 
+  /**
+   * Returns the held {@code SqlSession} of the given {@code ExecutorType}.
+   *
+   * @param executorType
+   *          the {@code ExecutorType} of the session
+   * @return the session, or {@code null} if none of this type is held
+   * @since 2.0.7
+   */
+  public SqlSession getSqlSession(ExecutorType executorType) {
+    return executorType == this.executorType ? this.sqlSession : this.additionalSessions.get(executorType);
+  }
+
+  /**
+   * Returns all the held sessions, the {@code BATCH} one first so that its pending statements are flushed before the
+   * other sessions are committed.
+   *
+   * @return the held sessions
+   * @since 2.0.7
+   */
+  public List<SqlSession> getSqlSessions() {
+    List<SqlSession> sessions = new ArrayList<>(this.additionalSessions.size() + 1);
+    SqlSession batchSession = getSqlSession(ExecutorType.BATCH);
+    if (batchSession != null) {
+      sessions.add(batchSession);
+    }
+    if (this.executorType != ExecutorType.BATCH) {
+      sessions.add(this.sqlSession);
+    }
+    this.additionalSessions.forEach((type, session) -> {
+      if (type != ExecutorType.BATCH) {
+        sessions.add(session);
+      }
+    });
+    return sessions;
+  }
+
+  boolean holds(SqlSession session) {
+    return this.sqlSession == session || this.additionalSessions.containsValue(session);
+  }
+
+  void addSqlSession(ExecutorType executorType, SqlSession session) {
+    notNull(session, "SqlSession must not be null");
+    this.additionalSessions.put(executorType, session);
+  }
+
+  /**
+   * Makes the session of the given type the one in use. When switching away from the {@code BATCH} session its pending
+   * statements are flushed, so they run before the statements of the other session, and the local cache of the session
+   * switched to is cleared, as it may hold rows changed through another session. Nothing can have changed in a
+   * read-only transaction that did not write, so the cache is kept then.
+   */
+  void switchTo(ExecutorType executorType) {
+    if (executorType == this.lastExecutorType) {
+      return;
+    }
+    if (this.lastExecutorType == ExecutorType.BATCH) {
+      getSqlSession(ExecutorType.BATCH).flushStatements();
+      setPending(0L, 0L);
+    }
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || isWritten()) {
+      getSqlSession(executorType).clearCache();
+    }
+    this.lastExecutorType = executorType;
+  }
+
+  /**
+   * Records that a statement that may change data without making its session dirty, like a callable select, was run
+   * through one of the held sessions.
+   */
+  void markWritten() {
+    this.written = true;
+  }
+
+  /**
+   * Tells whether data may have been changed through one of the held sessions. Besides the statements recorded with
+   * {@link #markWritten()}, a session that ran an insert, update or delete, through a template or not, is dirty until
+   * it is committed. A session whose dirty state cannot be read is taken as written.
+   */
+  boolean isWritten() {
+    if (!this.written) {
+      for (SqlSession session : getSqlSessions()) {
+        if (isDirty(session)) {
+          this.written = true;
+          break;
+        }
+      }
+    }
+    return this.written;
+  }
+
+  private static boolean isDirty(SqlSession session) {
+    return !(session instanceof DefaultSqlSession)
+        || Boolean.TRUE.equals(SystemMetaObject.forObject(session).getValue("dirty"));
+  }
+
+  long getPendingStatements() {
+    return this.pendingStatements;
+  }
+
+  long getPendingBytes() {
+    return this.pendingBytes;
+  }
+
+  /**
+   * Records the statements pending in the {@code BATCH} session, as accounted by a {@link BatchFlushPolicy}.
+   */
+  void setPending(long pendingStatements, long pendingBytes) {
+    this.pendingStatements = pendingStatements;
+    this.pendingBytes = pendingBytes;
+  }
+
 }
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.metrics.SessionLeakDetector;
+import org.springframework.core.NamedThreadLocal;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+
+/**
+ * Binds one {@code SqlSession} to the current thread for the duration of a unit of work, without starting a Spring
+ * transaction.
+ * <p>
+ * Outside a transaction {@code SqlSessionTemplate} opens, commits and closes a new {@code SqlSession} on every call.
+ * Inside a scope all template calls made on the same {@code SqlSessionFactory} share the scoped session instead, so the
+ * local cache, the statements of a {@code REUSE} executor and the JDBC connection are kept until the scope ends. The
+ * session is committed when the unit of work completes normally and just closed if it fails.
+ * <p>
+ * An actual Spring transaction started within the scope still gets its own transactional session. Note that writes made
+ * through the scoped session are only committed when the scope ends, unless the connection is in auto-commit mode.
+ *
+ * <pre class="code">
+ * List&lt;User&gt; users = SqlSessionScope.execute(sqlSessionFactory, () -&gt; {
+ *   Group group = groupMapper.findGroup(groupId);
+ *   return userMapper.findUsers(group);
+ * });
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionUtils#getSqlSession(SqlSessionFactory, ExecutorType, PersistenceExceptionTranslator)
+ */
+public final class SqlSessionScope {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlSessionScope.class);
+
+  private static final ThreadLocal<Map<SqlSessionFactory, SqlSessionHolder>> HOLDERS = new NamedThreadLocal<>(
+      "Scoped MyBatis SqlSessions");
+
+  /**
+   * This class can't be instantiated, exposes static utility methods only.
+   */
+  private SqlSessionScope() {
+    // do nothing
+  }
+
+  /**
+   * Runs the given action within a session scope that uses the default {@code ExecutorType} of the factory.
+   *
+   * @param sessionFactory
+   *          the factory whose sessions are scoped
+   * @param action
+   *          the unit of work
+   */
+  public static void run(SqlSessionFactory sessionFactory, Runnable action) {
+    notNull(action, "Parameter 'action' must be not null");
+    execute(sessionFactory, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * Runs the given action within a session scope that uses the default {@code ExecutorType} of the factory.
+   *
+   * @param <T>
+   *          the result type
+   * @param sessionFactory
+   *          the factory whose sessions are scoped
+   * @param action
+   *          the unit of work
+   * @return the result of the action
+   */
+  public static <T> T execute(SqlSessionFactory sessionFactory, Supplier<T> action) {
+    notNull(sessionFactory, "Parameter 'sessionFactory' must be not null");
+    return execute(sessionFactory, sessionFactory.getConfiguration().getDefaultExecutorType(), action);
+  }
+
+  /**
+   * Runs the given action within a session scope. If a scope is already open for the factory on this thread the action
+   * simply joins it.
+   *
+   * @param <T>
+   *          the result type
+   * @param sessionFactory
+   *          the factory whose sessions are scoped
+   * @param executorType
+   *          the executor type of the scoped session
+   * @param action
+   *          the unit of work
+   * @return the result of the action
+   * @throws TransientDataAccessResourceException
+   *           if the scope is already open with a different {@code ExecutorType}
+   */
+  public static <T> T execute(SqlSessionFactory sessionFactory, ExecutorType executorType, Supplier<T> action) {
+    notNull(sessionFactory, "Parameter 'sessionFactory' must be not null");
+    notNull(executorType, "Parameter 'executorType' must be not null");
+    notNull(action, "Parameter 'action' must be not null");
+
+    Map<SqlSessionFactory, SqlSessionHolder> holders = HOLDERS.get();
+    SqlSessionHolder outer = holders != null ? holders.get(sessionFactory) : null;
+    if (outer != null) {
+      if (outer.getExecutorType() != executorType) {
+        throw new TransientDataAccessResourceException(
+            "Cannot change the ExecutorType when there is an existing SqlSession scope");
+      }
+      return action.get();
+    }
+
+    SqlSession session = sessionFactory.openSession(executorType);
+    LOGGER.debug(() -> "Opened scoped SqlSession [" + session + "]");
+    SessionLeakDetector.acquired(session, "SqlSessionScope");
+    SqlSessionHolder holder = new SqlSessionHolder(session, executorType, new MyBatisExceptionTranslator(
+        sessionFactory.getConfiguration().getEnvironment().getDataSource(), true));
+    if (holders == null) {
+      holders = new HashMap<>(4);
+      HOLDERS.set(holders);
+    }
+    holders.put(sessionFactory, holder);
+
+    boolean completed = false;
+    try {
+      T result = action.get();
+      completed = true;
+      return result;
+    } finally {
+      holders.remove(sessionFactory);
+      if (holders.isEmpty()) {
+        HOLDERS.remove();
+      }
+      close(holder, completed);
+    }
+  }
+
+  /**
+   * Returns the holder of the scope open for the given factory on the current thread.
+   *
+   * @param sessionFactory
+   *          a factory of SqlSession
+   * @return the scoped holder or {@code null} if there is no scope
+   */
+  static SqlSessionHolder getHolder(SqlSessionFactory sessionFactory) {
+    Map<SqlSessionFactory, SqlSessionHolder> holders = HOLDERS.get();
+    return holders != null ? holders.get(sessionFactory) : null;
+  }
+
+  private static void close(SqlSessionHolder holder, boolean commit) {
+    SqlSession session = holder.getSqlSession();
+    try {
+      if (commit) {
+        LOGGER.debug(() -> "Committing scoped SqlSession [" + session + "]");
+        // force commit even on non-dirty sessions because some databases require
+        // a commit/rollback before calling close()
+        session.commit(true);
+      }
+    } catch (PersistenceException p) {
+      DataAccessException translated = holder.getPersistenceExceptionTranslator().translateExceptionIfPossible(p);
+      throw translated != null ? translated : p;
+    } finally {
+      LOGGER.debug(() -> "Closing scoped SqlSession [" + session + "]");
+      SessionLeakDetector.released(session);
+      session.close();
+    }
+  }
+
+}
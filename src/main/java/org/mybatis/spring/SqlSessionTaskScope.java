@@ -0,0 +1,227 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notNull;
+import static org.springframework.util.Assert.state;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Fans out independent reads to concurrent subtasks, in the style of structured concurrency: subtasks are forked
+ * within the scope, joined together, and never outlive it.
+ * <p>
+ * A {@code SqlSession} and its JDBC connection can't be used by several threads at once, so the session bound to the
+ * forking thread is not shared with the subtasks. Instead each subtask runs within its own {@link SqlSessionScope} on
+ * the factory of the task scope: all the template calls it makes share one session, which is committed and closed when
+ * the subtask ends. As a consequence subtasks do not take part in a transaction of the forking thread and do not see
+ * its uncommitted changes, which is why the scope is meant for read-only fan-out.
+ * <p>
+ * By default every subtask runs on a new virtual thread if the JVM supports them. Otherwise the subtasks of all the
+ * scopes share a pool of daemon threads bounded to twice the number of processors, with a minimum of 4, so that a
+ * large fan-out queues up rather than starting as many platform threads. As a subtask waiting for another subtask of
+ * the same pool may then wait forever, subtasks should not fork and join scopes of their own on that pool.
+ * <p>
+ * A virtual thread that blocks within a {@code synchronized} section pins its carrier thread on the JVMs that support
+ * them up to Java 23. Such sections are still met on the way of a statement: Spring's {@code SQLErrorCodesFactory}
+ * reads the metadata of the database within one the first time it translates an exception of a {@code DataSource},
+ * and JDBC drivers and connection pools may block within their own. Under a large fan-out these can exhaust the
+ * carrier threads for a while, which an executor of platform threads avoids.
+ *
+ * <pre class="code">
+ * {@code
+ * try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+ *   Supplier<User> user = scope.fork(() -> userMapper.findUser(userId));
+ *   Supplier<List<Order>> orders = scope.fork(() -> orderMapper.findOrders(userId));
+ *   scope.join();
+ *   return new UserOrders(user.get(), orders.get());
+ * }
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionScope
+ */
+public class SqlSessionTaskScope implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlSessionTaskScope.class);
+
+  private static final int MAX_PLATFORM_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+  private final SqlSessionFactory sqlSessionFactory;
+
+  private final ExecutorType executorType;
+
+  private final Executor executor;
+
+  private final Thread owner = Thread.currentThread();
+
+  private final List<CompletableFuture<?>> subtasks = new ArrayList<>();
+
+  private boolean joined;
+
+  private boolean closed;
+
+  /**
+   * Creates a task scope whose subtasks use the default {@code ExecutorType} of the factory and run on new virtual
+   * threads, or on a shared bounded pool of threads if the JVM does not support virtual threads.
+   *
+   * @param sqlSessionFactory
+   *          the factory of the sessions of the subtasks
+   */
+  public SqlSessionTaskScope(SqlSessionFactory sqlSessionFactory) {
+    this(sqlSessionFactory, DEFAULT_EXECUTOR);
+  }
+
+  /**
+   * Creates a task scope whose subtasks use the default {@code ExecutorType} of the factory and run on the given
+   * executor. The executor should not run tasks on the calling thread.
+   *
+   * @param sqlSessionFactory
+   *          the factory of the sessions of the subtasks
+   * @param executor
+   *          the executor running the subtasks
+   */
+  public SqlSessionTaskScope(SqlSessionFactory sqlSessionFactory, Executor executor) {
+    notNull(sqlSessionFactory, "Property 'sqlSessionFactory' is required");
+    notNull(executor, "Property 'executor' is required");
+    this.sqlSessionFactory = sqlSessionFactory;
+    this.executorType = sqlSessionFactory.getConfiguration().getDefaultExecutorType();
+    this.executor = executor;
+  }
+
+  /**
+   * Starts a subtask within its own {@link SqlSessionScope}.
+   *
+   * @param <T>
+   *          the result type
+   * @param task
+   *          the subtask
+   * @return a supplier of the result of the subtask, that can be called once the scope is joined
+   * @throws IllegalStateException
+   *           if the scope is already joined or closed, or if it is not called by the thread that created the scope
+   */
+  public <T> Supplier<T> fork(Supplier<T> task) {
+    notNull(task, "Parameter 'task' must be not null");
+    checkOwner();
+    state(!this.joined && !this.closed, "The scope is already joined or closed");
+    if (this.subtasks.isEmpty() && TransactionSynchronizationManager.isActualTransactionActive()) {
+      LOGGER.debug(() -> "Forked subtasks do not take part in the current transaction");
+    }
+    CompletableFuture<T> subtask = CompletableFuture
+        .supplyAsync(() -> SqlSessionScope.execute(this.sqlSessionFactory, this.executorType, task), this.executor);
+    this.subtasks.add(subtask);
+    return () -> {
+      state(this.joined, "The scope is not joined yet");
+      return subtask.join();
+    };
+  }
+
+  /**
+   * Waits for all the subtasks to complete, and rethrows the exception of the first failed one, in the order they were
+   * forked.
+   *
+   * @throws IllegalStateException
+   *           if the scope is closed, or if it is not called by the thread that created the scope
+   */
+  public void join() {
+    checkOwner();
+    state(!this.closed, "The scope is closed");
+    awaitAll();
+    this.joined = true;
+    for (CompletableFuture<?> subtask : this.subtasks) {
+      if (subtask.isCompletedExceptionally()) {
+        try {
+          subtask.join();
+        } catch (CompletionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the scope, waiting for the subtasks that are still running so that none outlives it.
+   */
+  @Override
+  public void close() {
+    checkOwner();
+    if (!this.closed) {
+      this.closed = true;
+      awaitAll();
+    }
+  }
+
+  private void awaitAll() {
+    CompletableFuture.allOf(this.subtasks.toArray(new CompletableFuture<?>[0])).handle((result, e) -> null).join();
+  }
+
+  private void checkOwner() {
+    state(Thread.currentThread() == this.owner, "The scope can only be used by the thread that created it");
+  }
+
+  private static Executor createDefaultExecutor() {
+    Method ofVirtual = ReflectionUtils.findMethod(Thread.class, "ofVirtual");
+    if (ofVirtual != null) {
+      try {
+        Class<?> builderType = ClassUtils.forName("java.lang.Thread$Builder", Thread.class.getClassLoader());
+        Object builder = ReflectionUtils.invokeMethod(ofVirtual, null);
+        ThreadFactory threadFactory = (ThreadFactory) ReflectionUtils
+            .invokeMethod(builderType.getMethod("factory"), builder);
+        LOGGER.debug(() -> "Running forked SqlSession subtasks on virtual threads");
+        return command -> threadFactory.newThread(command).start();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        LOGGER.debug(() -> "Could not create a virtual thread factory: " + e);
+      }
+    }
+    LOGGER.debug(() -> "Running forked SqlSession subtasks on up to " + MAX_PLATFORM_THREADS + " threads");
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mybatis-fork-");
+    threadFactory.setDaemon(true);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+}
@@ -15,31 +15,53 @@
  */
 package org.mybatis.spring;
 
-import static java.lang.reflect.Proxy.newProxyInstance;
-
 import static org.apache.ibatis.reflection.ExceptionUtil.unwrapThrowable;
 import static org.mybatis.spring.SqlSessionUtils.closeSqlSession;
 import static org.mybatis.spring.SqlSessionUtils.getSqlSession;
-import static org.mybatis.spring.SqlSessionUtils.isSqlSessionTransactional;
+import static org.mybatis.spring.SqlSessionUtils.managingHolder;
 import static org.springframework.util.Assert.notNull;
 
-import java.lang.reflect.InvocationHandler;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.Connection;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.annotation.Deadline;
+import org.mybatis.spring.metrics.LifecycleEvent;
+import org.mybatis.spring.metrics.LifecycleEvents;
+import org.mybatis.spring.metrics.SessionLeakDetector;
+import org.mybatis.spring.metrics.SlowStatementLog;
+import org.mybatis.spring.metrics.StatementMetricsRecorder;
+import org.mybatis.spring.transaction.StatementDeadline;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Thread safe, Spring managed, {@code SqlSession} that works with Spring transaction management to ensure that that the
@@ -74,14 +96,30 @@ import org.springframework.dao.support.PersistenceExceptionTranslator;
  */
 public class SqlSessionTemplate implements SqlSession, DisposableBean {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(SqlSessionTemplate.class);
+
   private final SqlSessionFactory sqlSessionFactory;
 
   private final ExecutorType executorType;
 
-  private final SqlSession sqlSessionProxy;
+  private final SqlSessionInterceptor sqlSessionInterceptor;
 
   private final PersistenceExceptionTranslator exceptionTranslator;
 
+  private final Map<String, Boolean> readOnlyStatements = new ConcurrentHashMap<>();
+
+  private final Map<String, Long> statementDeadlines = new ConcurrentHashMap<>();
+
+  private ReadOnlyCompletion readOnlyCompletion = ReadOnlyCompletion.COMMIT;
+
+  private StatementMetricsRecorder statementMetricsRecorder;
+
+  private SlowStatementLog slowStatementLog;
+
+  private SelectCoalescer selectCoalescer;
+
+  private BatchFlushPolicy batchFlushPolicy;
+
   /**
    * Constructs a Spring managed SqlSession with the {@code SqlSessionFactory} provided as an argument.
    *
@@ -128,8 +166,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
     this.sqlSessionFactory = sqlSessionFactory;
     this.executorType = executorType;
     this.exceptionTranslator = exceptionTranslator;
-    this.sqlSessionProxy = (SqlSession) newProxyInstance(SqlSessionFactory.class.getClassLoader(),
-        new Class[] { SqlSession.class }, new SqlSessionInterceptor());
+    this.sqlSessionInterceptor = new SqlSessionInterceptor();
   }
 
   public SqlSessionFactory getSqlSessionFactory() {
@@ -144,12 +181,125 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
     return this.exceptionTranslator;
   }
 
+  /**
+   * Sets how a non transactional {@code SqlSession} is completed after a read-only statement. By default it is
+   * committed like after any other statement.
+   *
+   * @param readOnlyCompletion
+   *          the completion to apply after read-only statements
+   * @since 2.0.7
+   */
+  public void setReadOnlyCompletion(ReadOnlyCompletion readOnlyCompletion) {
+    notNull(readOnlyCompletion, "Property 'readOnlyCompletion' is required");
+    this.readOnlyCompletion = readOnlyCompletion;
+  }
+
+  /**
+   * Gets how a non transactional {@code SqlSession} is completed after a read-only statement.
+   *
+   * @return the completion applied after read-only statements
+   * @since 2.0.7
+   */
+  public ReadOnlyCompletion getReadOnlyCompletion() {
+    return this.readOnlyCompletion;
+  }
+
+  /**
+   * Sets the recorder that receives the latency of every statement run through this template. Nothing is measured when
+   * it is not set, which is the default.
+   *
+   * @param statementMetricsRecorder
+   *          the recorder of the statement latencies, or {@code null} to disable measuring
+   * @since 2.0.7
+   */
+  public void setStatementMetricsRecorder(StatementMetricsRecorder statementMetricsRecorder) {
+    this.statementMetricsRecorder = statementMetricsRecorder;
+  }
+
+  /**
+   * Gets the recorder that receives the latency of every statement run through this template.
+   *
+   * @return the recorder of the statement latencies, or {@code null} if none is set
+   * @since 2.0.7
+   */
+  public StatementMetricsRecorder getStatementMetricsRecorder() {
+    return this.statementMetricsRecorder;
+  }
+
+  /**
+   * Sets the log that reports the statements run through this template that take longer than its threshold. Nothing is
+   * reported when it is not set, which is the default.
+   *
+   * @param slowStatementLog
+   *          the log of the slow statements, or {@code null} to disable it
+   * @since 2.0.7
+   */
+  public void setSlowStatementLog(SlowStatementLog slowStatementLog) {
+    this.slowStatementLog = slowStatementLog;
+  }
+
+  /**
+   * Gets the log that reports the statements run through this template that take longer than its threshold.
+   *
+   * @return the log of the slow statements, or {@code null} if none is set
+   * @since 2.0.7
+   */
+  public SlowStatementLog getSlowStatementLog() {
+    return this.slowStatementLog;
+  }
+
+  /**
+   * Sets the coalescer that lets identical concurrent reads share one execution. Reads are coalesced only outside
+   * transactions and {@link SqlSessionScope}s. Nothing is coalesced when it is not set, which is the default.
+   *
+   * @param selectCoalescer
+   *          the coalescer of the reads, or {@code null} to disable coalescing
+   * @since 2.0.7
+   */
+  public void setSelectCoalescer(SelectCoalescer selectCoalescer) {
+    this.selectCoalescer = selectCoalescer;
+  }
+
+  /**
+   * Gets the coalescer that lets identical concurrent reads share one execution.
+   *
+   * @return the coalescer of the reads, or {@code null} if none is set
+   * @since 2.0.7
+   */
+  public SelectCoalescer getSelectCoalescer() {
+    return this.selectCoalescer;
+  }
+
+  /**
+   * Sets the policy that flushes the statements a {@code BATCH} template keeps pending within a transaction or a
+   * {@link SqlSessionScope}, so they do not pile up until the commit. It is ignored by templates of other executor
+   * types. Nothing is flushed before the commit when it is not set, which is the default.
+   *
+   * @param batchFlushPolicy
+   *          the policy flushing the pending statements, or {@code null} to disable automatic flushes
+   * @since 2.0.7
+   */
+  public void setBatchFlushPolicy(BatchFlushPolicy batchFlushPolicy) {
+    this.batchFlushPolicy = batchFlushPolicy;
+  }
+
+  /**
+   * Gets the policy that flushes the statements a {@code BATCH} template keeps pending within a transaction.
+   *
+   * @return the policy flushing the pending statements, or {@code null} if none is set
+   * @since 2.0.7
+   */
+  public BatchFlushPolicy getBatchFlushPolicy() {
+    return this.batchFlushPolicy;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public <T> T selectOne(String statement) {
-    return this.sqlSessionProxy.selectOne(statement);
+    return coalesce(SelectCoalescer.Method.SELECT_ONE, statement, null, null, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, sqlSession -> sqlSession.selectOne(statement)));
   }
 
   /**
@@ -157,7 +307,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <T> T selectOne(String statement, Object parameter) {
-    return this.sqlSessionProxy.selectOne(statement, parameter);
+    return coalesce(SelectCoalescer.Method.SELECT_ONE, statement, parameter, null, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+            sqlSession -> sqlSession.selectOne(statement, parameter)));
   }
 
   /**
@@ -165,7 +317,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
-    return this.sqlSessionProxy.selectMap(statement, mapKey);
+    return coalesce(SelectCoalescer.Method.SELECT_MAP, statement, null, mapKey, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement,
+            sqlSession -> sqlSession.selectMap(statement, mapKey)));
   }
 
   /**
@@ -173,7 +327,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
-    return this.sqlSessionProxy.selectMap(statement, parameter, mapKey);
+    return coalesce(SelectCoalescer.Method.SELECT_MAP, statement, parameter, mapKey, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+            sqlSession -> sqlSession.selectMap(statement, parameter, mapKey)));
   }
 
   /**
@@ -181,7 +337,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
-    return this.sqlSessionProxy.selectMap(statement, parameter, mapKey, rowBounds);
+    return coalesce(SelectCoalescer.Method.SELECT_MAP, statement, parameter, mapKey, rowBounds,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+            sqlSession -> sqlSession.selectMap(statement, parameter, mapKey, rowBounds)));
   }
 
   /**
@@ -189,7 +347,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <T> Cursor<T> selectCursor(String statement) {
-    return this.sqlSessionProxy.selectCursor(statement);
+    return this.sqlSessionInterceptor.invokeSelect(statement, sqlSession -> sqlSession.selectCursor(statement));
   }
 
   /**
@@ -197,7 +355,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <T> Cursor<T> selectCursor(String statement, Object parameter) {
-    return this.sqlSessionProxy.selectCursor(statement, parameter);
+    return this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+        sqlSession -> sqlSession.selectCursor(statement, parameter));
   }
 
   /**
@@ -205,7 +364,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
-    return this.sqlSessionProxy.selectCursor(statement, parameter, rowBounds);
+    return this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+        sqlSession -> sqlSession.selectCursor(statement, parameter, rowBounds));
   }
 
   /**
@@ -213,7 +373,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <E> List<E> selectList(String statement) {
-    return this.sqlSessionProxy.selectList(statement);
+    return coalesce(SelectCoalescer.Method.SELECT_LIST, statement, null, null, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, sqlSession -> sqlSession.selectList(statement)));
   }
 
   /**
@@ -221,7 +382,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <E> List<E> selectList(String statement, Object parameter) {
-    return this.sqlSessionProxy.selectList(statement, parameter);
+    return coalesce(SelectCoalescer.Method.SELECT_LIST, statement, parameter, null, RowBounds.DEFAULT,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+            sqlSession -> sqlSession.selectList(statement, parameter)));
   }
 
   /**
@@ -229,7 +392,9 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
-    return this.sqlSessionProxy.selectList(statement, parameter, rowBounds);
+    return coalesce(SelectCoalescer.Method.SELECT_LIST, statement, parameter, null, rowBounds,
+        () -> this.sqlSessionInterceptor.invokeSelect(statement, parameter,
+            sqlSession -> sqlSession.selectList(statement, parameter, rowBounds)));
   }
 
   /**
@@ -237,7 +402,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public void select(String statement, ResultHandler handler) {
-    this.sqlSessionProxy.select(statement, handler);
+    this.sqlSessionInterceptor.invokeSelect(statement, sqlSession -> {
+      sqlSession.select(statement, handler);
+      return null;
+    });
   }
 
   /**
@@ -245,7 +413,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public void select(String statement, Object parameter, ResultHandler handler) {
-    this.sqlSessionProxy.select(statement, parameter, handler);
+    this.sqlSessionInterceptor.invokeSelect(statement, parameter, sqlSession -> {
+      sqlSession.select(statement, parameter, handler);
+      return null;
+    });
   }
 
   /**
@@ -253,7 +424,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
-    this.sqlSessionProxy.select(statement, parameter, rowBounds, handler);
+    this.sqlSessionInterceptor.invokeSelect(statement, parameter, sqlSession -> {
+      sqlSession.select(statement, parameter, rowBounds, handler);
+      return null;
+    });
   }
 
   /**
@@ -261,7 +435,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int insert(String statement) {
-    return this.sqlSessionProxy.insert(statement);
+    return this.sqlSessionInterceptor.invoke(statement, sqlSession -> sqlSession.insert(statement));
   }
 
   /**
@@ -269,7 +443,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int insert(String statement, Object parameter) {
-    return this.sqlSessionProxy.insert(statement, parameter);
+    return this.sqlSessionInterceptor.invoke(statement, parameter,
+        sqlSession -> sqlSession.insert(statement, parameter));
   }
 
   /**
@@ -277,7 +452,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int update(String statement) {
-    return this.sqlSessionProxy.update(statement);
+    return this.sqlSessionInterceptor.invoke(statement, sqlSession -> sqlSession.update(statement));
   }
 
   /**
@@ -285,7 +460,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int update(String statement, Object parameter) {
-    return this.sqlSessionProxy.update(statement, parameter);
+    return this.sqlSessionInterceptor.invoke(statement, parameter,
+        sqlSession -> sqlSession.update(statement, parameter));
   }
 
   /**
@@ -293,7 +469,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int delete(String statement) {
-    return this.sqlSessionProxy.delete(statement);
+    return this.sqlSessionInterceptor.invoke(statement, sqlSession -> sqlSession.delete(statement));
   }
 
   /**
@@ -301,7 +477,8 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public int delete(String statement, Object parameter) {
-    return this.sqlSessionProxy.delete(statement, parameter);
+    return this.sqlSessionInterceptor.invoke(statement, parameter,
+        sqlSession -> sqlSession.delete(statement, parameter));
   }
 
   /**
@@ -357,7 +534,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public void clearCache() {
-    this.sqlSessionProxy.clearCache();
+    this.sqlSessionInterceptor.invoke(sqlSession -> {
+      sqlSession.clearCache();
+      return null;
+    });
   }
 
   /**
@@ -374,7 +554,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public Connection getConnection() {
-    return this.sqlSessionProxy.getConnection();
+    return this.sqlSessionInterceptor.invoke(SqlSession::getConnection);
   }
 
   /**
@@ -385,7 +565,102 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
    */
   @Override
   public List<BatchResult> flushStatements() {
-    return this.sqlSessionProxy.flushStatements();
+    return this.sqlSessionInterceptor.invokeFlush(SqlSession::flushStatements);
+  }
+
+  /**
+   * Retrieves the rows of a query lazily as a {@code Stream}.
+   *
+   * @param <T>
+   *          the returned stream element type
+   * @param statement
+   *          the statement to use
+   * @return a stream of mapped objects, that must be closed
+   * @since 2.0.7
+   * @see #selectStream(String, Object, RowBounds)
+   */
+  public <T> Stream<T> selectStream(String statement) {
+    return selectStream(statement, null, RowBounds.DEFAULT);
+  }
+
+  /**
+   * Retrieves the rows of a query lazily as a {@code Stream}.
+   *
+   * @param <T>
+   *          the returned stream element type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @return a stream of mapped objects, that must be closed
+   * @since 2.0.7
+   * @see #selectStream(String, Object, RowBounds)
+   */
+  public <T> Stream<T> selectStream(String statement, Object parameter) {
+    return selectStream(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   * Retrieves the rows of a query lazily as a {@code Stream} backed by a MyBatis {@code Cursor}, so they do not have to
+   * be loaded in a {@code List}.
+   * <p>
+   * Unlike a {@code Cursor} returned by {@link #selectCursor(String, Object, RowBounds)}, the stream can be used outside
+   * a transaction: it then owns a {@code SqlSession} and its connection, which are released when the stream is closed.
+   * Within a transaction it reads through the transactional {@code SqlSession}, and its cursor is closed at the latest
+   * with that session when the transaction completes. In both cases the stream should be closed once consumed, for
+   * example with a try-with-resources statement.
+   *
+   * @param <T>
+   *          the returned stream element type
+   * @param statement
+   *          the statement to use
+   * @param parameter
+   *          a parameter object to pass to the statement
+   * @param rowBounds
+   *          bounds to limit object retrieval
+   * @return a stream of mapped objects, that must be closed
+   * @since 2.0.7
+   */
+  public <T> Stream<T> selectStream(String statement, Object parameter, RowBounds rowBounds) {
+    SqlSessionHolder bound = (SqlSessionHolder) TransactionSynchronizationManager.getResource(this.sqlSessionFactory);
+    SqlSession sqlSession = getSqlSession(this.sqlSessionFactory, this.executorType, this.exceptionTranslator, bound);
+    SqlSessionHolder holder = managingHolder(sqlSession, this.sqlSessionFactory, bound);
+    boolean managed = holder != null;
+    Cursor<T> cursor;
+    try {
+      cursor = sqlSession.selectCursor(statement, parameter, rowBounds);
+    } catch (RuntimeException e) {
+      closeSqlSession(sqlSession, holder);
+      throw CursorPublisher.translate(e, this.exceptionTranslator);
+    }
+
+    Stream<T> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        new TranslatingIterator<>(cursor.iterator(), this.exceptionTranslator), Spliterator.ORDERED), false);
+    if (managed) {
+      // the session stays open until the transaction or the scope ends, and closes the cursor with it
+      closeSqlSession(sqlSession, holder);
+      return stream.onClose(() -> closeCursor(cursor));
+    }
+    return stream.onClose(() -> {
+      try {
+        closeCursor(cursor);
+        this.sqlSessionInterceptor.complete(sqlSession, statement, true);
+      } catch (RuntimeException e) {
+        throw CursorPublisher.translate(e, this.exceptionTranslator);
+      } finally {
+        LOGGER.debug(() -> "Closing SqlSession [" + sqlSession + "] of a stream");
+        SessionLeakDetector.released(sqlSession);
+        sqlSession.close();
+      }
+    });
+  }
+
+  private static void closeCursor(Cursor<?> cursor) {
+    try {
+      cursor.close();
+    } catch (IOException e) {
+      LOGGER.warn(() -> "Could not close cursor: " + e);
+    }
   }
 
   /**
@@ -414,41 +689,282 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
   }
 
   /**
-   * Proxy needed to route MyBatis method calls to the proper SqlSession got from Spring's Transaction Manager It also
-   * unwraps exceptions thrown by {@code Method#invoke(Object, Object...)} to pass a {@code PersistenceException} to the
-   * {@code PersistenceExceptionTranslator}.
+   * Runs the given read through the coalescer if the statement is coalesced and the read would not be bound to a
+   * transaction or a scope, whose sessions must not share results with other threads.
+   */
+  private <T> T coalesce(SelectCoalescer.Method method, String statement, Object parameter, String mapKey,
+      RowBounds rowBounds, Supplier<T> call) {
+    SelectCoalescer coalescer = this.selectCoalescer;
+    if (coalescer == null || !coalescer.isCoalesced(statement)
+        || TransactionSynchronizationManager.isSynchronizationActive()
+        || SqlSessionScope.getHolder(this.sqlSessionFactory) != null) {
+      return call.get();
+    }
+    return coalescer.execute(this.sqlSessionFactory, method, statement, parameter, mapKey, rowBounds, call);
+  }
+
+  /**
+   * Returns if the given statement only reads data, that is if it is a {@code SELECT} statement that does not call a
+   * stored procedure.
+   */
+  boolean isReadOnlyStatement(String statement) {
+    Boolean readOnly = this.readOnlyStatements.get(statement);
+    if (readOnly == null) {
+      Configuration configuration = getConfiguration();
+      if (!configuration.hasStatement(statement, false)) {
+        return false;
+      }
+      MappedStatement ms = configuration.getMappedStatement(statement, false);
+      readOnly = ms.getSqlCommandType() == SqlCommandType.SELECT && ms.getStatementType() != StatementType.CALLABLE;
+      this.readOnlyStatements.put(statement, readOnly);
+    }
+    return readOnly;
+  }
+
+  /**
+   * Returns the timeout declared with {@link Deadline} on the mapper method of the given statement or on its mapper
+   * interface, in nanoseconds, or 0 if none is declared.
+   */
+  long getDeadlineNanos(String statement) {
+    Long deadlineNanos = this.statementDeadlines.get(statement);
+    if (deadlineNanos == null) {
+      deadlineNanos = resolveDeadlineNanos(statement);
+      this.statementDeadlines.put(statement, deadlineNanos);
+    }
+    return deadlineNanos;
+  }
+
+  private long resolveDeadlineNanos(String statement) {
+    int dot = statement.lastIndexOf('.');
+    if (dot <= 0) {
+      return 0L;
+    }
+    String typeName = statement.substring(0, dot);
+    String methodName = statement.substring(dot + 1);
+    for (Class<?> mapperInterface : getConfiguration().getMapperRegistry().getMappers()) {
+      if (mapperInterface.getName().equals(typeName)) {
+        for (Method method : mapperInterface.getMethods()) {
+          if (!method.getName().equals(methodName)) {
+            continue;
+          }
+          Deadline deadline = AnnotatedElementUtils.findMergedAnnotation(method, Deadline.class);
+          if (deadline != null) {
+            return deadline.unit().toNanos(deadline.value());
+          }
+        }
+        Deadline deadline = AnnotatedElementUtils.findMergedAnnotation(mapperInterface, Deadline.class);
+        return deadline != null ? deadline.unit().toNanos(deadline.value()) : 0L;
+      }
+    }
+    return 0L;
+  }
+
+  /**
+   * Translates the exceptions thrown while iterating over a {@code Cursor}.
    */
-  private class SqlSessionInterceptor implements InvocationHandler {
+  private static final class TranslatingIterator<T> implements Iterator<T> {
+
+    private final Iterator<T> iterator;
+
+    private final PersistenceExceptionTranslator exceptionTranslator;
+
+    TranslatingIterator(Iterator<T> iterator, PersistenceExceptionTranslator exceptionTranslator) {
+      this.iterator = iterator;
+      this.exceptionTranslator = exceptionTranslator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        return this.iterator.hasNext();
+      } catch (RuntimeException e) {
+        throw CursorPublisher.translate(e, this.exceptionTranslator);
+      }
+    }
+
     @Override
-    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-      SqlSession sqlSession = getSqlSession(SqlSessionTemplate.this.sqlSessionFactory,
-          SqlSessionTemplate.this.executorType, SqlSessionTemplate.this.exceptionTranslator);
+    public T next() {
       try {
-        Object result = method.invoke(sqlSession, args);
-        if (!isSqlSessionTransactional(sqlSession, SqlSessionTemplate.this.sqlSessionFactory)) {
-          // force commit even on non-dirty sessions because some databases require
-          // a commit/rollback before calling close()
-          sqlSession.commit(true);
+        return this.iterator.next();
+      } catch (RuntimeException e) {
+        throw CursorPublisher.translate(e, this.exceptionTranslator);
+      }
+    }
+  }
+
+  /**
+   * Routes MyBatis method calls to the proper SqlSession got from Spring's Transaction Manager. Each template method
+   * hands over a callback bound to its own arguments, so no reflective call is made on the way to the target session.
+   * It also passes any {@code PersistenceException} to the {@code PersistenceExceptionTranslator}.
+   */
+  private class SqlSessionInterceptor {
+
+    <T> T invoke(Function<SqlSession, T> call) {
+      return invoke(null, null, false, false, call);
+    }
+
+    <T> T invoke(String statement, Function<SqlSession, T> call) {
+      return invoke(statement, null, false, false, call);
+    }
+
+    <T> T invoke(String statement, Object parameter, Function<SqlSession, T> call) {
+      return invoke(statement, parameter, false, false, call);
+    }
+
+    <T> T invokeSelect(String statement, Function<SqlSession, T> call) {
+      return invoke(statement, null, true, false, call);
+    }
+
+    <T> T invokeSelect(String statement, Object parameter, Function<SqlSession, T> call) {
+      return invoke(statement, parameter, true, false, call);
+    }
+
+    <T> T invokeFlush(Function<SqlSession, T> call) {
+      return invoke(null, null, false, true, call);
+    }
+
+    private <T> T invoke(String statement, Object parameter, boolean select, boolean flush,
+        Function<SqlSession, T> call) {
+      StatementMetricsRecorder recorder = null;
+      SlowStatementLog slowStatementLog = null;
+      if (statement != null) {
+        recorder = SqlSessionTemplate.this.statementMetricsRecorder;
+        slowStatementLog = SqlSessionTemplate.this.slowStatementLog;
+      }
+      boolean timed = recorder != null || slowStatementLog != null;
+      long start = timed ? System.nanoTime() : 0L;
+      // the transaction holder is looked up once and reused to release the session
+      SqlSessionFactory sessionFactory = SqlSessionTemplate.this.sqlSessionFactory;
+      SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+      SqlSession sqlSession = getSqlSession(sessionFactory, SqlSessionTemplate.this.executorType,
+          SqlSessionTemplate.this.exceptionTranslator, holder);
+      holder = managingHolder(sqlSession, sessionFactory, holder);
+      boolean transactional = holder != null;
+      long acquired = timed ? System.nanoTime() : 0L;
+      long executed = 0L;
+      long translation = 0L;
+      boolean failed = true;
+      long eventStart = statement != null ? LifecycleEvents.start() : 0L;
+      long deadlineNanos = statement != null ? getDeadlineNanos(statement) : 0L;
+      try {
+        T result = deadlineNanos > 0L ? applyWithin(deadlineNanos, call, sqlSession) : call.apply(sqlSession);
+        LifecycleEvents.end(LifecycleEvent.STATEMENT_EXECUTE, statement, eventStart);
+        eventStart = 0L;
+        if (transactional && (statement != null || flush)) {
+          if (select && statement != null && !isReadOnlyStatement(statement)) {
+            holder.markWritten();
+          }
+          afterBatchStatement(holder, sqlSession, parameter, select || flush);
+        }
+        if (timed) {
+          executed = System.nanoTime();
         }
+        if (!transactional) {
+          complete(sqlSession, statement, select);
+        }
+        failed = false;
         return result;
-      } catch (Throwable t) {
-        Throwable unwrapped = unwrapThrowable(t);
+      } catch (RuntimeException e) {
+        // a failed statement is reported too, unless it is its completion that failed
+        LifecycleEvents.end(LifecycleEvent.STATEMENT_EXECUTE, statement, eventStart);
+        Throwable unwrapped = unwrapThrowable(e);
         if (SqlSessionTemplate.this.exceptionTranslator != null && unwrapped instanceof PersistenceException) {
           // release the connection to avoid a deadlock if the translator is no loaded. See issue #22
-          closeSqlSession(sqlSession, SqlSessionTemplate.this.sqlSessionFactory);
+          closeSqlSession(sqlSession, holder);
           sqlSession = null;
-          Throwable translated = SqlSessionTemplate.this.exceptionTranslator
+          long translationStart = timed ? System.nanoTime() : 0L;
+          RuntimeException translated = SqlSessionTemplate.this.exceptionTranslator
               .translateExceptionIfPossible((PersistenceException) unwrapped);
+          if (timed) {
+            translation = System.nanoTime() - translationStart;
+          }
           if (translated != null) {
-            unwrapped = translated;
+            throw translated;
           }
+          throw (PersistenceException) unwrapped;
         }
-        throw unwrapped;
+        throw rethrow(unwrapped);
       } finally {
         if (sqlSession != null) {
-          closeSqlSession(sqlSession, SqlSessionTemplate.this.sqlSessionFactory);
+          closeSqlSession(sqlSession, holder);
+        }
+        if (timed) {
+          long end = System.nanoTime();
+          if (recorder != null) {
+            record(recorder, statement, start, acquired, executed, end, translation, failed);
+          }
+          if (slowStatementLog != null && slowStatementLog.isSlow(end - start)) {
+            reportSlowStatement(slowStatementLog, statement, parameter, end - start, transactional, failed);
+          }
+        }
+      }
+    }
+
+    /**
+     * Throws the unwrapped exception as the JDK proxy of the previous versions did: unchecked exceptions as they are,
+     * and checked ones wrapped in an {@code UndeclaredThrowableException}.
+     */
+    private RuntimeException rethrow(Throwable unwrapped) {
+      if (unwrapped instanceof RuntimeException) {
+        return (RuntimeException) unwrapped;
+      }
+      if (unwrapped instanceof Error) {
+        throw (Error) unwrapped;
+      }
+      return new UndeclaredThrowableException(unwrapped);
+    }
+
+    private <T> T applyWithin(long deadlineNanos, Function<SqlSession, T> call, SqlSession sqlSession) {
+      return StatementDeadline.within(Duration.ofNanos(deadlineNanos), () -> call.apply(sqlSession));
+    }
+
+    private void afterBatchStatement(SqlSessionHolder holder, SqlSession sqlSession, Object parameter,
+        boolean flushed) {
+      BatchFlushPolicy policy = SqlSessionTemplate.this.batchFlushPolicy;
+      if (policy == null || SqlSessionTemplate.this.executorType != ExecutorType.BATCH) {
+        return;
+      }
+      if (flushed) {
+        // an explicit flush, or a query run by a BATCH executor, flushes the pending statements
+        holder.setPending(0L, 0L);
+      } else {
+        policy.afterStatement(holder, sqlSession, parameter);
+      }
+    }
+
+    private void record(StatementMetricsRecorder recorder, String statement, long start, long acquired,
+        long executed, long end, long translation, boolean failed) {
+      // the statement either ran up to its completion or failed, in which case there is no commit phase
+      long execute = executed != 0L ? executed - acquired : end - acquired - translation;
+      long commit = executed != 0L ? end - executed - translation : 0L;
+      try {
+        recorder.record(statement, acquired - start, execute, commit, translation, failed);
+      } catch (RuntimeException e) {
+        LOGGER.warn(() -> "Could not record the metrics of statement [" + statement + "]: " + e);
+      }
+    }
+
+    private void reportSlowStatement(SlowStatementLog slowStatementLog, String statement, Object parameter,
+        long elapsedNanos, boolean transactional, boolean failed) {
+      try {
+        slowStatementLog.report(SqlSessionTemplate.this.sqlSessionFactory.getConfiguration(), statement, parameter,
+            elapsedNanos, transactional, failed);
+      } catch (RuntimeException e) {
+        LOGGER.warn(() -> "Could not report slow statement [" + statement + "]: " + e);
+      }
+    }
+
+    private void complete(SqlSession sqlSession, String statement, boolean select) {
+      ReadOnlyCompletion completion = SqlSessionTemplate.this.readOnlyCompletion;
+      if (completion != ReadOnlyCompletion.COMMIT && select && isReadOnlyStatement(statement)) {
+        if (completion == ReadOnlyCompletion.ROLLBACK) {
+          sqlSession.rollback(true);
         }
+        return;
       }
+      // force commit even on non-dirty sessions because some databases require
+      // a commit/rollback before calling close()
+      sqlSession.commit(true);
     }
   }
 
@@ -17,6 +17,12 @@ package org.mybatis.spring;
 
 import static org.springframework.util.Assert.notNull;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.ExecutorType;
@@ -24,6 +30,9 @@ import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.metrics.LifecycleEvent;
+import org.mybatis.spring.metrics.LifecycleEvents;
+import org.mybatis.spring.metrics.SessionLeakDetector;
 import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.TransientDataAccessResourceException;
@@ -46,6 +55,7 @@ public final class SqlSessionUtils {
   private static final String NO_EXECUTOR_TYPE_SPECIFIED = "No ExecutorType specified";
   private static final String NO_SQL_SESSION_FACTORY_SPECIFIED = "No SqlSessionFactory specified";
   private static final String NO_SQL_SESSION_SPECIFIED = "No SqlSession specified";
+  private static final String NO_DATA_SOURCE_SPECIFIED = "No DataSource specified";
 
   /**
    * This class can't be instantiated, exposes static utility methods only.
@@ -95,14 +105,30 @@ public final class SqlSessionUtils {
     notNull(executorType, NO_EXECUTOR_TYPE_SPECIFIED);
 
     SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+    return getSqlSession(sessionFactory, executorType, exceptionTranslator, holder);
+  }
 
-    SqlSession session = sessionHolder(executorType, holder);
+  /**
+   * Same as {@link #getSqlSession(SqlSessionFactory, ExecutorType, PersistenceExceptionTranslator)} with the holder
+   * bound to the current transaction already looked up, so that a caller can reuse it for the rest of the call.
+   */
+  static SqlSession getSqlSession(SqlSessionFactory sessionFactory, ExecutorType executorType,
+      PersistenceExceptionTranslator exceptionTranslator, SqlSessionHolder holder) {
+    SqlSession session = sessionHolder(sessionFactory, executorType, holder);
+    if (session != null) {
+      return session;
+    }
+
+    session = scopedSession(sessionFactory, executorType);
     if (session != null) {
       return session;
     }
 
     LOGGER.debug(() -> "Creating a new SqlSession");
+    long start = LifecycleEvents.start();
     session = sessionFactory.openSession(executorType);
+    LifecycleEvents.end(LifecycleEvent.SESSION_OPEN, null, start);
+    SessionLeakDetector.acquired(session, "SqlSessionUtils");
 
     registerSessionHolder(sessionFactory, executorType, exceptionTranslator, session);
 
@@ -156,26 +182,69 @@ public final class SqlSessionUtils {
 
   }
 
-  private static SqlSession sessionHolder(ExecutorType executorType, SqlSessionHolder holder) {
-    SqlSession session = null;
-    if (holder != null && holder.isSynchronizedWithTransaction()) {
-      if (holder.getExecutorType() != executorType) {
-        throw new TransientDataAccessResourceException(
-            "Cannot change the ExecutorType when there is an existing transaction");
-      }
+  private static SqlSession sessionHolder(SqlSessionFactory sessionFactory, ExecutorType executorType,
+      SqlSessionHolder holder) {
+    if (holder == null || !holder.isSynchronizedWithTransaction()) {
+      return null;
+    }
 
-      holder.requested();
+    SqlSession session = holder.getSqlSession(executorType);
+    if (session == null) {
+      // another ExecutorType within the same transaction: its SpringManagedTransaction gets the same connection
+      LOGGER.debug(() -> "Creating a new " + executorType + " SqlSession sharing the transaction of SqlSession ["
+          + holder.getSqlSession() + "]");
+      long start = LifecycleEvents.start();
+      session = sessionFactory.openSession(executorType);
+      LifecycleEvents.end(LifecycleEvent.SESSION_OPEN, null, start);
+      SessionLeakDetector.acquired(session, "SqlSessionUtils");
+      holder.addSqlSession(executorType, session);
+    } else {
+      SqlSession fetched = session;
+      LOGGER.debug(() -> "Fetched SqlSession [" + fetched + "] from current transaction");
+      LifecycleEvents.instant(LifecycleEvent.SESSION_REUSE, null);
+    }
 
-      LOGGER.debug(() -> "Fetched SqlSession [" + holder.getSqlSession() + "] from current transaction");
-      session = holder.getSqlSession();
+    try {
+      holder.switchTo(executorType);
+    } catch (PersistenceException p) {
+      throw translate(p, holder);
     }
+
+    holder.requested();
     return session;
   }
 
+  private static SqlSession scopedSession(SqlSessionFactory sessionFactory, ExecutorType executorType) {
+    // a scoped session is not bound to the transaction connection so it must not be used within an actual transaction
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      return null;
+    }
+    SqlSessionHolder holder = SqlSessionScope.getHolder(sessionFactory);
+    if (holder == null) {
+      return null;
+    }
+    if (holder.getExecutorType() != executorType) {
+      LOGGER.debug(() -> "Scoped SqlSession [" + holder.getSqlSession() + "] was not used because its ExecutorType is "
+          + holder.getExecutorType());
+      return null;
+    }
+
+    holder.requested();
+
+    LOGGER.debug(() -> "Fetched SqlSession [" + holder.getSqlSession() + "] from current session scope");
+    LifecycleEvents.instant(LifecycleEvent.SESSION_REUSE, null);
+    return holder.getSqlSession();
+  }
+
+  private static SqlSessionHolder scopedHolder(SqlSession session, SqlSessionFactory sessionFactory) {
+    SqlSessionHolder holder = SqlSessionScope.getHolder(sessionFactory);
+    return (holder != null) && holder.holds(session) ? holder : null;
+  }
+
   /**
    * Checks if {@code SqlSession} passed as an argument is managed by Spring {@code TransactionSynchronizationManager}
-   * If it is not, it closes it, otherwise it just updates the reference counter and lets Spring call the close callback
-   * when the managed transaction ends
+   * or by a {@link SqlSessionScope}. If it is not, it closes it, otherwise it just updates the reference counter and
+   * lets Spring call the close callback when the managed transaction ends
    *
    * @param session
    *          a target SqlSession
@@ -187,17 +256,24 @@ public final class SqlSessionUtils {
     notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
 
     SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
-    if ((holder != null) && (holder.getSqlSession() == session)) {
+    if ((holder != null) && holder.holds(session)) {
       LOGGER.debug(() -> "Releasing transactional SqlSession [" + session + "]");
       holder.released();
+    } else if ((holder = scopedHolder(session, sessionFactory)) != null) {
+      LOGGER.debug(() -> "Releasing scoped SqlSession [" + session + "]");
+      holder.released();
     } else {
       LOGGER.debug(() -> "Closing non transactional SqlSession [" + session + "]");
+      SessionLeakDetector.released(session);
+      long start = LifecycleEvents.start();
       session.close();
+      LifecycleEvents.end(LifecycleEvent.SESSION_CLOSE, null, start);
     }
   }
 
   /**
-   * Returns if the {@code SqlSession} passed as an argument is being managed by Spring
+   * Returns if the {@code SqlSession} passed as an argument is being managed by Spring, either by the current
+   * transaction or by a {@link SqlSessionScope}
    *
    * @param session
    *          a MyBatis SqlSession to check
@@ -211,7 +287,146 @@ public final class SqlSessionUtils {
 
     SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
 
-    return (holder != null) && (holder.getSqlSession() == session);
+    return ((holder != null) && holder.holds(session)) || scopedHolder(session, sessionFactory) != null;
+  }
+
+  /**
+   * Prepares the {@code SqlSession}s bound to the current transaction for a savepoint about to be created on a
+   * connection of the given {@code DataSource}. The pending statements of their {@code BATCH} sessions are flushed, so
+   * that they run before the savepoint and are not undone by a rollback to it. The sessions of factories using another
+   * {@code DataSource} are left alone, as the savepoint does not apply to their connections.
+   * <p>
+   * {@link org.mybatis.spring.transaction.SavepointAwareDataSourceTransactionManager} calls it, other transaction
+   * managers can call it before creating a savepoint.
+   *
+   * @param dataSource
+   *          the {@code DataSource} of the connection the savepoint is created on
+   * @throws DataAccessException
+   *           if a pending statement fails
+   * @since 2.0.7
+   */
+  public static void beforeSavepoint(DataSource dataSource) {
+    notNull(dataSource, NO_DATA_SOURCE_SPECIFIED);
+    for (SqlSessionHolder holder : holdersOf(dataSource)) {
+      SqlSession batchSession = holder.getSqlSession(ExecutorType.BATCH);
+      if (batchSession != null) {
+        LOGGER.debug(() -> "Flushing SqlSession [" + batchSession + "] before savepoint");
+        try {
+          batchSession.flushStatements();
+        } catch (PersistenceException p) {
+          throw translate(p, holder);
+        } finally {
+          holder.setPending(0L, 0L);
+        }
+      }
+    }
+  }
+
+  /**
+   * Prepares the {@code SqlSession}s bound to the current transaction for a rollback to a savepoint of a connection of
+   * the given {@code DataSource}. The statements pending in their {@code BATCH} sessions since the savepoint was created
+   * are run, so that the rollback undoes them rather than leaving them to run with the rest of the transaction, and the
+   * local caches of the sessions are cleared, as they may hold rows that are rolled back. The sessions of factories
+   * using another {@code DataSource} are left alone.
+   * <p>
+   * Entries staged in second level caches since the savepoint are not discarded, as MyBatis only discards them along
+   * with those of the whole transaction.
+   *
+   * @param dataSource
+   *          the {@code DataSource} of the connection that is rolled back to the savepoint
+   * @since 2.0.7
+   */
+  public static void beforeRollbackToSavepoint(DataSource dataSource) {
+    notNull(dataSource, NO_DATA_SOURCE_SPECIFIED);
+    for (SqlSessionHolder holder : holdersOf(dataSource)) {
+      for (SqlSession session : holder.getSqlSessions()) {
+        LOGGER.debug(() -> "Clearing SqlSession [" + session + "] before rollback to savepoint");
+        try {
+          session.flushStatements();
+        } catch (RuntimeException e) {
+          // the statements are rolled back anyway
+          LOGGER.debug(() -> "Pending statements of SqlSession [" + session + "] failed: " + e);
+        }
+        session.clearCache();
+      }
+      holder.setPending(0L, 0L);
+    }
+  }
+
+  /**
+   * Returns the holders bound to the current transaction whose factory uses the given {@code DataSource}.
+   */
+  private static List<SqlSessionHolder> holdersOf(DataSource dataSource) {
+    List<SqlSessionHolder> holders = new ArrayList<>();
+    for (Map.Entry<Object, Object> resource : TransactionSynchronizationManager.getResourceMap().entrySet()) {
+      if (resource.getKey() instanceof SqlSessionFactory && resource.getValue() instanceof SqlSessionHolder) {
+        Environment environment = ((SqlSessionFactory) resource.getKey()).getConfiguration().getEnvironment();
+        if (environment != null && environment.getDataSource() == dataSource) {
+          holders.add((SqlSessionHolder) resource.getValue());
+        }
+      }
+    }
+    return holders;
+  }
+
+  /**
+   * Returns the holder of the current transaction or {@link SqlSessionScope} that holds the given session, or
+   * {@code null} if it is not managed. The holder bound to the current transaction is looked up again only when the
+   * given one is missing and synchronization is active, that is when the session may just have been registered.
+   * <p>
+   * The returned holder stays valid for the rest of the call even if the transaction is suspended and resumed meanwhile,
+   * as resuming binds the same holder again.
+   *
+   * @param session
+   *          a session returned by {@link #getSqlSession(SqlSessionFactory, ExecutorType, PersistenceExceptionTranslator,
+   *          SqlSessionHolder)}
+   * @param sessionFactory
+   *          the factory of the session
+   * @param holder
+   *          the holder that was bound to the current transaction when the session was requested
+   * @return the holder managing the session
+   */
+  static SqlSessionHolder managingHolder(SqlSession session, SqlSessionFactory sessionFactory,
+      SqlSessionHolder holder) {
+    if (holder == null && TransactionSynchronizationManager.isSynchronizationActive()) {
+      holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+    }
+    if ((holder != null) && holder.holds(session)) {
+      return holder;
+    }
+    return scopedHolder(session, sessionFactory);
+  }
+
+  /**
+   * Releases a session acquired with {@link #getSqlSession(SqlSessionFactory, ExecutorType,
+   * PersistenceExceptionTranslator, SqlSessionHolder)}, given the holder managing it.
+   *
+   * @param session
+   *          a target SqlSession
+   * @param holder
+   *          the holder managing the session, as returned by {@link #managingHolder}, or {@code null} to close it
+   */
+  static void closeSqlSession(SqlSession session, SqlSessionHolder holder) {
+    if (holder != null) {
+      LOGGER.debug(() -> "Releasing managed SqlSession [" + session + "]");
+      holder.released();
+    } else {
+      LOGGER.debug(() -> "Closing non transactional SqlSession [" + session + "]");
+      SessionLeakDetector.released(session);
+      long start = LifecycleEvents.start();
+      session.close();
+      LifecycleEvents.end(LifecycleEvent.SESSION_CLOSE, null, start);
+    }
+  }
+
+  private static RuntimeException translate(PersistenceException p, SqlSessionHolder holder) {
+    if (holder.getPersistenceExceptionTranslator() != null) {
+      DataAccessException translated = holder.getPersistenceExceptionTranslator().translateExceptionIfPossible(p);
+      if (translated != null) {
+        return translated;
+      }
+    }
+    return p;
   }
 
   /**
@@ -227,6 +442,10 @@ public final class SqlSessionUtils {
 
     private boolean holderActive = true;
 
+    private boolean committing;
+
+    private boolean sessionsClosed;
+
     public SqlSessionSynchronization(SqlSessionHolder holder, SqlSessionFactory sessionFactory) {
       notNull(holder, "Parameter 'holder' must be not null");
       notNull(sessionFactory, "Parameter 'sessionFactory' must be not null");
@@ -251,7 +470,9 @@ public final class SqlSessionUtils {
     public void suspend() {
       if (this.holderActive) {
         LOGGER.debug(() -> "Transaction synchronization suspending SqlSession [" + this.holder.getSqlSession() + "]");
+        long start = LifecycleEvents.start();
         TransactionSynchronizationManager.unbindResource(this.sessionFactory);
+        LifecycleEvents.end(LifecycleEvent.SYNCHRONIZATION_SUSPEND, null, start);
       }
     }
 
@@ -262,7 +483,9 @@ public final class SqlSessionUtils {
     public void resume() {
       if (this.holderActive) {
         LOGGER.debug(() -> "Transaction synchronization resuming SqlSession [" + this.holder.getSqlSession() + "]");
+        long start = LifecycleEvents.start();
         TransactionSynchronizationManager.bindResource(this.sessionFactory, this.holder);
+        LifecycleEvents.end(LifecycleEvent.SYNCHRONIZATION_RESUME, null, start);
       }
     }
 
@@ -276,20 +499,25 @@ public final class SqlSessionUtils {
       // But, do cleanup the SqlSession / Executor, including flushing BATCH statements so
       // they are actually executed.
       // SpringManagedTransaction will no-op the commit over the jdbc connection
-      // TODO This updates 2nd level caches but the tx may be rolledback later on!
+      // The 2nd level cache entries it flushes are held back by TransactionAwareCache until the tx has committed.
+      // A read-only transaction that did not write through any session has nothing to flush, and its SqlSessions are
+      // just closed. One that did is committed in full, as MyBatis rolls back a dirty session closed without a commit.
       if (TransactionSynchronizationManager.isActualTransactionActive()) {
+        if (readOnly && !this.holder.isWritten()) {
+          this.committing = true;
+          return;
+        }
+        long start = LifecycleEvents.start();
         try {
-          LOGGER.debug(() -> "Transaction synchronization committing SqlSession [" + this.holder.getSqlSession() + "]");
-          this.holder.getSqlSession().commit();
-        } catch (PersistenceException p) {
-          if (this.holder.getPersistenceExceptionTranslator() != null) {
-            DataAccessException translated = this.holder.getPersistenceExceptionTranslator()
-                .translateExceptionIfPossible(p);
-            if (translated != null) {
-              throw translated;
-            }
+          for (SqlSession session : this.holder.getSqlSessions()) {
+            LOGGER.debug(() -> "Transaction synchronization committing SqlSession [" + session + "]");
+            session.commit();
           }
-          throw p;
+          this.committing = true;
+        } catch (PersistenceException p) {
+          throw translate(p, this.holder);
+        } finally {
+          LifecycleEvents.end(LifecycleEvent.SYNCHRONIZATION_BEFORE_COMMIT, null, start);
         }
       }
     }
@@ -302,12 +530,14 @@ public final class SqlSessionUtils {
       // Issue #18 Close SqlSession and deregister it now
       // because afterCompletion may be called from a different thread
       if (!this.holder.isOpen()) {
+        long start = LifecycleEvents.start();
         LOGGER
             .debug(() -> "Transaction synchronization deregistering SqlSession [" + this.holder.getSqlSession() + "]");
         TransactionSynchronizationManager.unbindResource(sessionFactory);
         this.holderActive = false;
-        LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + this.holder.getSqlSession() + "]");
-        this.holder.getSqlSession().close();
+        // an actual transaction that did not go through beforeCommit is rolling back
+        closeSqlSessions(!this.committing && TransactionSynchronizationManager.isActualTransactionActive());
+        LifecycleEvents.end(LifecycleEvent.SYNCHRONIZATION_BEFORE_COMPLETION, null, start);
       }
     }
 
@@ -316,6 +546,7 @@ public final class SqlSessionUtils {
      */
     @Override
     public void afterCompletion(int status) {
+      long start = LifecycleEvents.start();
       if (this.holderActive) {
         // afterCompletion may have been called from a different thread
         // so avoid failing if there is nothing in this one
@@ -323,10 +554,34 @@ public final class SqlSessionUtils {
             .debug(() -> "Transaction synchronization deregistering SqlSession [" + this.holder.getSqlSession() + "]");
         TransactionSynchronizationManager.unbindResourceIfPossible(sessionFactory);
         this.holderActive = false;
-        LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + this.holder.getSqlSession() + "]");
-        this.holder.getSqlSession().close();
+      }
+      if (!this.sessionsClosed) {
+        closeSqlSessions(status != STATUS_COMMITTED);
       }
       this.holder.reset();
+      LifecycleEvents.end(LifecycleEvent.SYNCHRONIZATION_AFTER_COMPLETION, null, start);
+    }
+
+    /**
+     * Closes the SqlSessions, rolling them back first if the transaction did not commit so that the entries they
+     * staged in the 2nd level caches are discarded. Closing a session that was not rolled back flushes its staged
+     * entries to the caches, which publish them once the transaction has committed.
+     */
+    private void closeSqlSessions(boolean rollback) {
+      this.sessionsClosed = true;
+      for (SqlSession session : this.holder.getSqlSessions()) {
+        if (rollback) {
+          LOGGER.debug(() -> "Transaction synchronization rolling back SqlSession [" + session + "]");
+          try {
+            session.rollback(true);
+          } catch (RuntimeException e) {
+            LOGGER.warn(() -> "Could not roll back SqlSession [" + session + "]: " + e);
+          }
+        }
+        LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + session + "]");
+        SessionLeakDetector.released(session);
+        session.close();
+      }
     }
   }
 
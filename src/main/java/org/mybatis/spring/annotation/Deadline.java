@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets a {@link org.mybatis.spring.transaction.StatementDeadline} for the statement of a mapper method, or for those of
+ * all the methods of a mapper interface, when they are run through a {@code SqlSessionTemplate}. The deadline starts
+ * when the statement is run. A shorter deadline already set by the caller still applies.
+ *
+ * <pre class="code">
+ * public interface OrderMapper {
+ *   &#64;Deadline(500)
+ *   List&lt;Order&gt; findRecent(long userId);
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see org.mybatis.spring.transaction.StatementDeadline
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Documented
+public @interface Deadline {
+
+  /**
+   * Returns the time the statement has to complete.
+   *
+   * @return the timeout, in {@link #unit()}
+   */
+  long value();
+
+  /**
+   * Returns the unit of {@link #value()}.
+   *
+   * @return the time unit, milliseconds by default
+   */
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+}
@@ -26,6 +26,7 @@ import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.metrics.SessionLeakDetector;
 import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
 import org.springframework.beans.factory.InitializingBean;
 
@@ -66,6 +67,7 @@ public class MyBatisCursorItemReader<T> extends AbstractItemCountingItemStreamIt
     }
 
     sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE);
+    SessionLeakDetector.acquired(sqlSession, "MyBatisCursorItemReader");
     cursor = sqlSession.selectCursor(queryId, parameters);
     cursorIterator = cursor.iterator();
   }
@@ -76,6 +78,7 @@ public class MyBatisCursorItemReader<T> extends AbstractItemCountingItemStreamIt
       cursor.close();
     }
     if (sqlSession != null) {
+      SessionLeakDetector.released(sqlSession);
       sqlSession.close();
     }
     cursorIterator = null;
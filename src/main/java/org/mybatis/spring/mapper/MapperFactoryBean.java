@@ -21,6 +21,7 @@ import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.session.Configuration;
 import org.mybatis.spring.SqlSessionTemplate;
 import org.mybatis.spring.support.SqlSessionDaoSupport;
+import org.mybatis.spring.transaction.TransactionAwareCache;
 import org.springframework.beans.factory.FactoryBean;
 
 /**
@@ -84,6 +85,7 @@ public class MapperFactoryBean<T> extends SqlSessionDaoSupport implements Factor
       try {
         //加mapperClass添加至Configuration
         configuration.addMapper(this.mapperInterface);
+        TransactionAwareCache.decorateCaches(configuration);
       } catch (Exception e) {
         logger.error("Error while adding the mapper '" + this.mapperInterface + "' to configuration.", e);
         throw new IllegalArgumentException(e);
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * A {@code SqlSession} that has been held longer than the threshold of a {@link SessionLeakDetector}.
+ *
+ * @since 2.0.7
+ */
+public final class HeldSession {
+
+  private final String origin;
+
+  private final String threadName;
+
+  private final long acquiredAtMillis;
+
+  private final long heldMillis;
+
+  private final StackTraceElement[] stackTrace;
+
+  HeldSession(String origin, String threadName, long acquiredAtMillis, long heldMillis,
+      StackTraceElement[] stackTrace) {
+    this.origin = origin;
+    this.threadName = threadName;
+    this.acquiredAtMillis = acquiredAtMillis;
+    this.heldMillis = heldMillis;
+    this.stackTrace = stackTrace;
+  }
+
+  /**
+   * Returns what opened the session, such as {@code SqlSessionUtils} or {@code MyBatisCursorItemReader}.
+   *
+   * @return the origin of the session
+   */
+  public String getOrigin() {
+    return this.origin;
+  }
+
+  /**
+   * Returns the name of the thread that opened the session.
+   *
+   * @return the thread name
+   */
+  public String getThreadName() {
+    return this.threadName;
+  }
+
+  /**
+   * Returns when the session was opened.
+   *
+   * @return the time the session was opened, in milliseconds since the epoch
+   */
+  public long getAcquiredAtMillis() {
+    return this.acquiredAtMillis;
+  }
+
+  /**
+   * Returns how long the session had been held when this snapshot was taken.
+   *
+   * @return the time the session has been held, in milliseconds
+   */
+  public long getHeldMillis() {
+    return this.heldMillis;
+  }
+
+  /**
+   * Returns the stack trace of the thread when it opened the session.
+   *
+   * @return the stack trace, or {@code null} if it was not sampled
+   */
+  public StackTraceElement[] getStackTrace() {
+    return this.stackTrace != null ? this.stackTrace.clone() : null;
+  }
+
+  @Override
+  public String toString() {
+    return "HeldSession [origin=" + this.origin + ", thread=" + this.threadName + ", heldMillis=" + this.heldMillis
+        + "]";
+  }
+
+}
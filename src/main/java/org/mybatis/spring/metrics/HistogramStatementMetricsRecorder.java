@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link StatementMetricsRecorder} that keeps in-process latency histograms, one per statement and phase.
+ * <p>
+ * Recording is lock-free and does not allocate once a statement has been seen, so it can be left enabled in
+ * production. Use {@link #snapshot()} to read the current p50, p99 and p999 latencies.
+ *
+ * <pre class="code">
+ * {@code
+ * HistogramStatementMetricsRecorder recorder = new HistogramStatementMetricsRecorder();
+ * sqlSessionTemplate.setStatementMetricsRecorder(recorder);
+ * ...
+ * long p99 = recorder.snapshot("getUser").getLatency(StatementPhase.EXECUTE).getP99Nanos();
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public class HistogramStatementMetricsRecorder implements StatementMetricsRecorder {
+
+  private final ConcurrentMap<String, StatementHistograms> histograms = new ConcurrentHashMap<>();
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void record(String statement, long acquireNanos, long executeNanos, long commitNanos, long translateNanos,
+      boolean failed) {
+    StatementHistograms statementHistograms = this.histograms.get(statement);
+    if (statementHistograms == null) {
+      statementHistograms = this.histograms.computeIfAbsent(statement, key -> new StatementHistograms());
+    }
+    statementHistograms.record(acquireNanos, executeNanos, commitNanos, translateNanos, failed);
+  }
+
+  /**
+   * Returns the current metrics of all the recorded statements.
+   *
+   * @return the metrics keyed and sorted by statement id
+   */
+  public Map<String, StatementMetrics> snapshot() {
+    Map<String, StatementMetrics> snapshot = new TreeMap<>();
+    this.histograms.forEach((statement, statementHistograms) -> snapshot.put(statement,
+        statementHistograms.snapshot(statement)));
+    return snapshot;
+  }
+
+  /**
+   * Returns the current metrics of a statement.
+   *
+   * @param statement
+   *          the id of the mapped statement
+   * @return the metrics of the statement, or {@code null} if it has not been recorded
+   */
+  public StatementMetrics snapshot(String statement) {
+    StatementHistograms statementHistograms = this.histograms.get(statement);
+    return statementHistograms != null ? statementHistograms.snapshot(statement) : null;
+  }
+
+  /**
+   * Discards all the recorded metrics.
+   */
+  public void reset() {
+    this.histograms.clear();
+  }
+
+  private static final class StatementHistograms {
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+
+    private final LatencyHistogram execute = new LatencyHistogram();
+
+    private final LatencyHistogram commit = new LatencyHistogram();
+
+    private final LatencyHistogram translate = new LatencyHistogram();
+
+    private final LongAdder failures = new LongAdder();
+
+    void record(long acquireNanos, long executeNanos, long commitNanos, long translateNanos, boolean failed) {
+      this.acquire.record(acquireNanos);
+      this.execute.record(executeNanos);
+      if (failed) {
+        this.failures.increment();
+        if (translateNanos > 0) {
+          this.translate.record(translateNanos);
+        }
+      } else {
+        this.commit.record(commitNanos);
+      }
+    }
+
+    StatementMetrics snapshot(String statement) {
+      Map<StatementPhase, StatementMetrics.Latency> latencies = new EnumMap<>(StatementPhase.class);
+      latencies.put(StatementPhase.ACQUIRE, this.acquire.snapshot());
+      latencies.put(StatementPhase.EXECUTE, this.execute.snapshot());
+      latencies.put(StatementPhase.COMMIT, this.commit.snapshot());
+      latencies.put(StatementPhase.TRANSLATE, this.translate.snapshot());
+      return new StatementMetrics(statement, this.failures.sum(), latencies);
+    }
+  }
+
+}
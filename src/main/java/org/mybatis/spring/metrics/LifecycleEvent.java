@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * The steps of the life of Spring managed sessions, transactions and statements that are reported to a
+ * {@link LifecycleEventListener}.
+ *
+ * @since 2.0.7
+ */
+public enum LifecycleEvent {
+
+  /**
+   * A new {@code SqlSession} was opened by {@code SqlSessionUtils}.
+   */
+  SESSION_OPEN,
+
+  /**
+   * The {@code SqlSession} bound to the current transaction or scope was reused. This event has no duration.
+   */
+  SESSION_REUSE,
+
+  /**
+   * A non transactional {@code SqlSession} was closed by {@code SqlSessionUtils}.
+   */
+  SESSION_CLOSE,
+
+  /**
+   * The {@code SqlSession} of a transaction was unbound because the transaction was suspended.
+   */
+  SYNCHRONIZATION_SUSPEND,
+
+  /**
+   * The {@code SqlSession} of a transaction was bound again because the transaction was resumed.
+   */
+  SYNCHRONIZATION_RESUME,
+
+  /**
+   * The {@code SqlSession}s of a transaction were committed right before the transaction commit, which flushes their
+   * pending statements and publishes their second level cache entries.
+   */
+  SYNCHRONIZATION_BEFORE_COMMIT,
+
+  /**
+   * The {@code SqlSession}s of a transaction were unbound and closed before the transaction completion, after being
+   * rolled back if the transaction is rolling back. It is not reported when a session is still in use at that point.
+   */
+  SYNCHRONIZATION_BEFORE_COMPLETION,
+
+  /**
+   * The holder of the {@code SqlSession}s of a transaction was released after the transaction completion, closing the
+   * sessions that were still in use before it.
+   */
+  SYNCHRONIZATION_AFTER_COMPLETION,
+
+  /**
+   * A {@code SpringManagedTransaction} got its JDBC connection.
+   */
+  CONNECTION_ACQUIRE,
+
+  /**
+   * A {@code SpringManagedTransaction} committed its JDBC connection.
+   */
+  CONNECTION_COMMIT,
+
+  /**
+   * A {@code SpringManagedTransaction} rolled back its JDBC connection.
+   */
+  CONNECTION_ROLLBACK,
+
+  /**
+   * A {@code SpringManagedTransaction} released its JDBC connection.
+   */
+  CONNECTION_CLOSE,
+
+  /**
+   * A statement was run through a {@code SqlSessionTemplate}.
+   */
+  STATEMENT_EXECUTE
+
+}
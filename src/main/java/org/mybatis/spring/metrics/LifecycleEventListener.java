@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * Receives the {@link LifecycleEvent}s of Spring managed sessions, transactions and statements, for example to emit
+ * them as JDK Flight Recorder events.
+ * <p>
+ * Implementations are called synchronously on the thread where the event happened, so they must be thread safe and
+ * fast. Exceptions they throw are logged and ignored.
+ *
+ * @since 2.0.7
+ * @see LifecycleEvents#setListener(LifecycleEventListener)
+ */
+@FunctionalInterface
+public interface LifecycleEventListener {
+
+  /**
+   * Handles an event.
+   *
+   * @param event
+   *          the type of the event
+   * @param statement
+   *          the id of the mapped statement, or {@code null} if the event is not related to a statement
+   * @param durationNanos
+   *          the duration of the step, or zero for an instant event
+   */
+  void onEvent(LifecycleEvent event, String statement, long durationNanos);
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * Holds the {@link LifecycleEventListener} of the application and reports the {@link LifecycleEvent}s to it.
+ * <p>
+ * The events come from static utilities and from objects created by MyBatis, so the listener is global. When no
+ * listener is set, which is the default, reporting an event costs a single volatile read and no clock access.
+ * <p>
+ * On Java 11 or later, the events can be recorded by Java Flight Recorder with a listener such as:
+ *
+ * <pre class="code">
+ * &#64;Name("org.mybatis.Lifecycle")
+ * &#64;Category("MyBatis")
+ * class MyBatisEvent extends jdk.jfr.Event {
+ *   &#64;Label("Event") String event;
+ *   &#64;Label("Statement") String statement;
+ *   &#64;Label("Duration") &#64;Timespan long duration;
+ * }
+ *
+ * LifecycleEvents.setListener((event, statement, durationNanos) -&gt; {
+ *   MyBatisEvent jfrEvent = new MyBatisEvent();
+ *   if (jfrEvent.isEnabled()) {
+ *     jfrEvent.event = event.name();
+ *     jfrEvent.statement = statement;
+ *     jfrEvent.duration = durationNanos;
+ *     jfrEvent.commit();
+ *   }
+ * });
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public final class LifecycleEvents {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LifecycleEvents.class);
+
+  private static volatile LifecycleEventListener listener;
+
+  /**
+   * This class can't be instantiated, exposes static utility methods only.
+   */
+  private LifecycleEvents() {
+    // do nothing
+  }
+
+  /**
+   * Sets the listener of the events.
+   *
+   * @param listener
+   *          the listener, or {@code null} to stop reporting events
+   */
+  public static void setListener(LifecycleEventListener listener) {
+    LifecycleEvents.listener = listener;
+  }
+
+  public static LifecycleEventListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Starts measuring a step.
+   *
+   * @return the start time to pass to {@link #end(LifecycleEvent, String, long)}, or zero if no listener is set
+   */
+  public static long start() {
+    return listener != null ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Reports the end of a step started with {@link #start()}.
+   *
+   * @param event
+   *          the type of the event
+   * @param statement
+   *          the id of the mapped statement, or {@code null}
+   * @param start
+   *          the value returned by {@link #start()}
+   */
+  public static void end(LifecycleEvent event, String statement, long start) {
+    if (start != 0L) {
+      fire(event, statement, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Reports an instant event.
+   *
+   * @param event
+   *          the type of the event
+   * @param statement
+   *          the id of the mapped statement, or {@code null}
+   */
+  public static void instant(LifecycleEvent event, String statement) {
+    if (listener != null) {
+      fire(event, statement, 0L);
+    }
+  }
+
+  private static void fire(LifecycleEvent event, String statement, long durationNanos) {
+    LifecycleEventListener current = listener;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.onEvent(event, statement, durationNanos);
+    } catch (RuntimeException e) {
+      LOGGER.warn(() -> "Lifecycle event listener failed on " + event + ": " + e);
+    }
+  }
+
+}
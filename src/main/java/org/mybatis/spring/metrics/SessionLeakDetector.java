@@ -0,0 +1,331 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.state;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Watches the {@code SqlSession}s opened by MyBatis-Spring and reports the ones held longer than a threshold, such as
+ * a transaction or a cursor left open for minutes that starves the connection pool.
+ * <p>
+ * Once started, the detector tracks the sessions opened by {@code SqlSessionUtils}, {@code SqlSessionScope},
+ * {@code CursorPublisher} and {@code MyBatisCursorItemReader} until they are closed. A background thread checks them
+ * periodically and logs a warning, once, for each session held longer than the threshold. The sessions currently held
+ * longer than the threshold can also be queried with {@link #getHeldSessions()}.
+ * <p>
+ * A session is only weakly referenced while it is tracked. One that is closed directly with {@code SqlSession#close()}
+ * rather than through the component that opened it is forgotten once it is garbage collected, and may be reported as
+ * held until then. So is one that is dropped without being closed at all, whose connection, if any, the pool has to
+ * reclaim.
+ * <p>
+ * Tracking a session costs a map insertion and removal. The stack trace of the opening thread, which is what tells
+ * where a leaked session comes from, is only captured for a sampled fraction of the sessions. When no detector is
+ * started, which is the default, tracking costs a single volatile read.
+ *
+ * <pre class="code">
+ * SessionLeakDetector detector = new SessionLeakDetector();
+ * detector.setThresholdMillis(60_000);
+ * detector.setStackTraceSamplingRate(0.05);
+ * detector.start();
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public class SessionLeakDetector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SessionLeakDetector.class);
+
+  private static final AtomicReference<SessionLeakDetector> STARTED = new AtomicReference<>();
+
+  private static volatile SessionLeakDetector current;
+
+  private final Map<SessionReference, Acquisition> sessions = new ConcurrentHashMap<>();
+
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+  private long thresholdMillis = 30_000;
+
+  private long checkIntervalMillis = 5_000;
+
+  private double stackTraceSamplingRate = 0.1;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Sets how long a session can be held before it is reported. Defaults to 30 seconds.
+   *
+   * @param thresholdMillis
+   *          the threshold in milliseconds
+   */
+  public void setThresholdMillis(long thresholdMillis) {
+    isTrue(thresholdMillis > 0, "Property 'thresholdMillis' must be positive");
+    this.thresholdMillis = thresholdMillis;
+  }
+
+  public long getThresholdMillis() {
+    return this.thresholdMillis;
+  }
+
+  /**
+   * Sets how often the background thread checks the held sessions. Defaults to 5 seconds.
+   *
+   * @param checkIntervalMillis
+   *          the interval between two checks in milliseconds
+   */
+  public void setCheckIntervalMillis(long checkIntervalMillis) {
+    isTrue(checkIntervalMillis > 0, "Property 'checkIntervalMillis' must be positive");
+    this.checkIntervalMillis = checkIntervalMillis;
+  }
+
+  public long getCheckIntervalMillis() {
+    return this.checkIntervalMillis;
+  }
+
+  /**
+   * Sets the fraction of the sessions whose opening stack trace is captured, from 0 to 1. Defaults to 0.1.
+   *
+   * @param stackTraceSamplingRate
+   *          the sampling rate of the stack traces
+   */
+  public void setStackTraceSamplingRate(double stackTraceSamplingRate) {
+    isTrue(stackTraceSamplingRate >= 0 && stackTraceSamplingRate <= 1,
+        "Property 'stackTraceSamplingRate' must be between 0 and 1");
+    this.stackTraceSamplingRate = stackTraceSamplingRate;
+  }
+
+  public double getStackTraceSamplingRate() {
+    return this.stackTraceSamplingRate;
+  }
+
+  /**
+   * Starts tracking the sessions and checking them periodically. Only one detector can be started at a time.
+   *
+   * @throws IllegalStateException
+   *           if a detector is already started
+   */
+  public void start() {
+    state(STARTED.compareAndSet(null, this), "A SessionLeakDetector is already started");
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mybatis-leak-detector-");
+    threadFactory.setDaemon(true);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    this.scheduler.scheduleWithFixedDelay(this::check, this.checkIntervalMillis, this.checkIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    current = this;
+  }
+
+  /**
+   * Stops tracking the sessions and forgets the ones tracked so far.
+   */
+  public void stop() {
+    if (STARTED.compareAndSet(this, null)) {
+      current = null;
+      this.scheduler.shutdownNow();
+      this.scheduler = null;
+      this.sessions.clear();
+    }
+  }
+
+  /**
+   * Logs a warning for each session held longer than the threshold that was not reported yet. This is what the
+   * background thread runs periodically.
+   */
+  public void check() {
+    expungeCollected();
+    long now = System.nanoTime();
+    this.sessions.values().forEach(acquisition -> {
+      if (!acquisition.reported && heldMillis(acquisition, now) >= this.thresholdMillis) {
+        acquisition.reported = true;
+        LOGGER.warn(() -> describe(acquisition, now));
+      }
+    });
+  }
+
+  /**
+   * Returns the sessions currently held longer than the threshold, the longest held first.
+   *
+   * @return the sessions held longer than the threshold
+   */
+  public List<HeldSession> getHeldSessions() {
+    expungeCollected();
+    long now = System.nanoTime();
+    List<HeldSession> held = new ArrayList<>();
+    this.sessions.values().forEach(acquisition -> {
+      long heldMillis = heldMillis(acquisition, now);
+      if (heldMillis >= this.thresholdMillis) {
+        held.add(new HeldSession(acquisition.origin, acquisition.threadName, acquisition.acquiredAtMillis, heldMillis,
+            stackTrace(acquisition)));
+      }
+    });
+    held.sort(Comparator.comparingLong(HeldSession::getHeldMillis).reversed());
+    return held;
+  }
+
+  /**
+   * Returns the number of sessions currently tracked, whether they exceed the threshold or not.
+   *
+   * @return the number of open sessions
+   */
+  public int getOpenSessionCount() {
+    expungeCollected();
+    return this.sessions.size();
+  }
+
+  /**
+   * Starts tracking a session that was just opened, if a detector is started.
+   *
+   * @param session
+   *          the opened session
+   * @param origin
+   *          what opened the session
+   */
+  public static void acquired(Object session, String origin) {
+    SessionLeakDetector detector = current;
+    if (detector != null) {
+      detector.track(session, origin);
+    }
+  }
+
+  /**
+   * Stops tracking a session that is being closed, if a detector is started.
+   *
+   * @param session
+   *          the closed session
+   */
+  public static void released(Object session) {
+    SessionLeakDetector detector = current;
+    if (detector != null) {
+      detector.sessions.remove(new SessionReference(session, null));
+    }
+  }
+
+  private void track(Object session, String origin) {
+    double rate = this.stackTraceSamplingRate;
+    Throwable stackTrace = rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate)
+        ? new Throwable("SqlSession opened here")
+        : null;
+    expungeCollected();
+    this.sessions.put(new SessionReference(session, this.collected), new Acquisition(origin, stackTrace));
+  }
+
+  private void expungeCollected() {
+    for (Reference<?> reference; (reference = this.collected.poll()) != null;) {
+      this.sessions.remove(reference);
+    }
+  }
+
+  private static long heldMillis(Acquisition acquisition, long now) {
+    return TimeUnit.NANOSECONDS.toMillis(now - acquisition.acquiredNanos);
+  }
+
+  private static String describe(Acquisition acquisition, long now) {
+    StringBuilder message = new StringBuilder("SqlSession opened by ").append(acquisition.origin)
+        .append(" on thread [").append(acquisition.threadName).append("] has been held for ")
+        .append(heldMillis(acquisition, now)).append(" ms");
+    if (acquisition.stackTrace == null) {
+      message.append(" (stack trace not sampled)");
+    } else {
+      for (StackTraceElement element : stackTrace(acquisition)) {
+        message.append(System.lineSeparator()).append("\tat ").append(element);
+      }
+    }
+    return message.toString();
+  }
+
+  private static StackTraceElement[] stackTrace(Acquisition acquisition) {
+    if (acquisition.stackTrace == null) {
+      return null;
+    }
+    // skip the frames of the detector itself
+    StackTraceElement[] elements = acquisition.stackTrace.getStackTrace();
+    int first = 0;
+    while (first < elements.length && SessionLeakDetector.class.getName().equals(elements[first].getClassName())) {
+      first++;
+    }
+    return Arrays.copyOfRange(elements, first, elements.length);
+  }
+
+  /**
+   * A weak reference to a session that compares the sessions by identity, and stays equal to itself once cleared so
+   * that it can still be removed.
+   */
+  private static final class SessionReference extends WeakReference<Object> {
+
+    private final int hash;
+
+    SessionReference(Object session, ReferenceQueue<Object> queue) {
+      super(session, queue);
+      this.hash = System.identityHashCode(session);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof SessionReference)) {
+        return false;
+      }
+      Object session = get();
+      return session != null && session == ((SessionReference) obj).get();
+    }
+  }
+
+  private static final class Acquisition {
+
+    private final String origin;
+
+    private final String threadName = Thread.currentThread().getName();
+
+    private final long acquiredNanos = System.nanoTime();
+
+    private final long acquiredAtMillis = System.currentTimeMillis();
+
+    private final Throwable stackTrace;
+
+    private volatile boolean reported;
+
+    Acquisition(String origin, Throwable stackTrace) {
+      this.origin = origin;
+      this.stackTrace = stackTrace;
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * A statement run through a {@code SqlSessionTemplate} that took longer than the threshold of a
+ * {@link SlowStatementLog}.
+ *
+ * @since 2.0.7
+ */
+public final class SlowStatement {
+
+  private final String statement;
+
+  private final long elapsedNanos;
+
+  private final String sql;
+
+  private final String parameter;
+
+  private final boolean transactional;
+
+  private final boolean failed;
+
+  SlowStatement(String statement, long elapsedNanos, String sql, String parameter, boolean transactional,
+      boolean failed) {
+    this.statement = statement;
+    this.elapsedNanos = elapsedNanos;
+    this.sql = sql;
+    this.parameter = parameter;
+    this.transactional = transactional;
+    this.failed = failed;
+  }
+
+  /**
+   * Returns the id of the mapped statement.
+   *
+   * @return the statement id
+   */
+  public String getStatement() {
+    return this.statement;
+  }
+
+  /**
+   * Returns the time spent in the call, from getting the {@code SqlSession} to releasing it.
+   *
+   * @return the elapsed time in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  /**
+   * Returns the SQL of the statement, bound to the parameter of the call.
+   *
+   * @return the SQL or {@code null} if it could not be built
+   */
+  public String getSql() {
+    return this.sql;
+  }
+
+  /**
+   * Returns the truncated string representation of the parameter of the call.
+   *
+   * @return the parameter or {@code null} if it was not sampled
+   */
+  public String getParameter() {
+    return this.parameter;
+  }
+
+  /**
+   * Returns whether the call used a transactional or scoped {@code SqlSession}.
+   *
+   * @return {@code true} if the session was not opened for this call only
+   */
+  public boolean isTransactional() {
+    return this.transactional;
+  }
+
+  /**
+   * Returns whether the call threw an exception.
+   *
+   * @return {@code true} if the call failed
+   */
+  public boolean isFailed() {
+    return this.failed;
+  }
+
+  @Override
+  public String toString() {
+    return "SlowStatement [statement=" + this.statement + ", elapsedMillis=" + this.elapsedNanos / 1_000_000
+        + ", transactional=" + this.transactional + ", failed=" + this.failed + ", sql=" + this.sql + ", parameter="
+        + this.parameter + "]";
+  }
+
+}
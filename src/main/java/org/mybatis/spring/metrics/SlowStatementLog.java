@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * Reports the statements run through a {@code SqlSessionTemplate} that take longer than a threshold.
+ * <p>
+ * Each slow call produces a {@link SlowStatement} with the statement id, the elapsed time, the bound SQL, whether the
+ * call was transactional and, for a sampled fraction of the calls, a truncated snapshot of the parameter. Nothing but
+ * the elapsed time is computed for calls under the threshold. By default the records are logged as warnings by the
+ * {@code org.mybatis.spring.metrics.SlowStatementLog} logger.
+ *
+ * <pre class="code">
+ * SlowStatementLog slowStatementLog = new SlowStatementLog();
+ * slowStatementLog.setThresholdMillis(200);
+ * slowStatementLog.setParameterSamplingRate(0.1);
+ * sqlSessionTemplate.setSlowStatementLog(slowStatementLog);
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see org.mybatis.spring.SqlSessionTemplate#setSlowStatementLog(SlowStatementLog)
+ */
+public class SlowStatementLog {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowStatementLog.class);
+
+  private long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+
+  private double parameterSamplingRate = 1.0;
+
+  private int maxParameterLength = 256;
+
+  private SlowStatementSink sink = SlowStatementLog::log;
+
+  /**
+   * Sets the elapsed time above which a call is reported. Defaults to one second.
+   *
+   * @param thresholdMillis
+   *          the threshold in milliseconds
+   */
+  public void setThresholdMillis(long thresholdMillis) {
+    isTrue(thresholdMillis >= 0, "Property 'thresholdMillis' must be positive or zero");
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+  }
+
+  public long getThresholdMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(this.thresholdNanos);
+  }
+
+  /**
+   * Sets the fraction of the slow calls whose parameter is captured, between {@code 0.0} and {@code 1.0}. Defaults to
+   * {@code 1.0}. Lower it when the parameters are large or their {@code toString()} is expensive.
+   *
+   * @param parameterSamplingRate
+   *          the sampling rate of the parameters
+   */
+  public void setParameterSamplingRate(double parameterSamplingRate) {
+    isTrue(parameterSamplingRate >= 0.0 && parameterSamplingRate <= 1.0,
+        "Property 'parameterSamplingRate' must be between 0.0 and 1.0");
+    this.parameterSamplingRate = parameterSamplingRate;
+  }
+
+  public double getParameterSamplingRate() {
+    return this.parameterSamplingRate;
+  }
+
+  /**
+   * Sets the length above which the string representation of a parameter is truncated. Defaults to 256.
+   *
+   * @param maxParameterLength
+   *          the maximum length of a parameter snapshot
+   */
+  public void setMaxParameterLength(int maxParameterLength) {
+    isTrue(maxParameterLength > 0, "Property 'maxParameterLength' must be positive");
+    this.maxParameterLength = maxParameterLength;
+  }
+
+  public int getMaxParameterLength() {
+    return this.maxParameterLength;
+  }
+
+  /**
+   * Sets the sink of the slow statements. By default they are logged as warnings.
+   *
+   * @param sink
+   *          the sink of the slow statements
+   */
+  public void setSink(SlowStatementSink sink) {
+    notNull(sink, "Property 'sink' is required");
+    this.sink = sink;
+  }
+
+  public SlowStatementSink getSink() {
+    return this.sink;
+  }
+
+  /**
+   * Returns whether a call that took the given time must be reported.
+   *
+   * @param elapsedNanos
+   *          the elapsed time of the call
+   * @return {@code true} if the call is slow
+   */
+  public boolean isSlow(long elapsedNanos) {
+    return elapsedNanos > this.thresholdNanos;
+  }
+
+  /**
+   * Builds the record of a slow call and hands it to the sink.
+   *
+   * @param configuration
+   *          the configuration holding the mapped statement
+   * @param statement
+   *          the id of the mapped statement
+   * @param parameter
+   *          the parameter of the call
+   * @param elapsedNanos
+   *          the elapsed time of the call
+   * @param transactional
+   *          whether the call used a transactional or scoped {@code SqlSession}
+   * @param failed
+   *          whether the call threw an exception
+   */
+  public void report(Configuration configuration, String statement, Object parameter, long elapsedNanos,
+      boolean transactional, boolean failed) {
+    this.sink.accept(new SlowStatement(statement, elapsedNanos, boundSql(configuration, statement, parameter),
+        sampleParameter(parameter), transactional, failed));
+  }
+
+  private static String boundSql(Configuration configuration, String statement, Object parameter) {
+    try {
+      MappedStatement mappedStatement = configuration.getMappedStatement(statement, false);
+      // collections and arrays are wrapped the way DefaultSqlSession does before they reach the statement
+      return mappedStatement.getBoundSql(ParamNameResolver.wrapToMapIfCollection(parameter, null)).getSql();
+    } catch (RuntimeException e) {
+      // the statement failed before it was bound or does not exist
+      return null;
+    }
+  }
+
+  private String sampleParameter(Object parameter) {
+    double samplingRate = this.parameterSamplingRate;
+    if (parameter == null || (samplingRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= samplingRate)) {
+      return null;
+    }
+    String snapshot;
+    try {
+      snapshot = String.valueOf(parameter);
+    } catch (RuntimeException e) {
+      return parameter.getClass().getName() + " (toString() failed: " + e + ")";
+    }
+    return snapshot.length() > this.maxParameterLength ? snapshot.substring(0, this.maxParameterLength) + "..."
+        : snapshot;
+  }
+
+  private static void log(SlowStatement slowStatement) {
+    LOGGER.warn(() -> "Slow statement [" + slowStatement.getStatement() + "] took "
+        + TimeUnit.NANOSECONDS.toMillis(slowStatement.getElapsedNanos()) + " ms"
+        + (slowStatement.isTransactional() ? " in a transaction" : "") + (slowStatement.isFailed() ? " and failed" : "")
+        + ": SQL [" + slowStatement.getSql() + "], parameter [" + slowStatement.getParameter() + "]");
+  }
+
+}
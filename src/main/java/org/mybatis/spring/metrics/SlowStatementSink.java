@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * Receives the slow statements detected by a {@link SlowStatementLog}.
+ * <p>
+ * Implementations are called on the thread that ran the statement, so they must be thread safe and should hand the
+ * record off quickly.
+ *
+ * @since 2.0.7
+ */
+@FunctionalInterface
+public interface SlowStatementSink {
+
+  /**
+   * Handles a slow statement.
+   *
+   * @param slowStatement
+   *          the slow statement
+   */
+  void accept(SlowStatement slowStatement);
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the latencies recorded for one statement by a {@link HistogramStatementMetricsRecorder}.
+ *
+ * @since 2.0.7
+ */
+public final class StatementMetrics {
+
+  private final String statement;
+
+  private final long failures;
+
+  private final Map<StatementPhase, Latency> latencies;
+
+  StatementMetrics(String statement, long failures, Map<StatementPhase, Latency> latencies) {
+    this.statement = statement;
+    this.failures = failures;
+    this.latencies = new EnumMap<>(latencies);
+  }
+
+  public String getStatement() {
+    return this.statement;
+  }
+
+  /**
+   * Returns the number of calls of the statement.
+   *
+   * @return the number of calls
+   */
+  public long getCount() {
+    return getLatency(StatementPhase.EXECUTE).getCount();
+  }
+
+  /**
+   * Returns the number of calls of the statement that threw an exception.
+   *
+   * @return the number of failed calls
+   */
+  public long getFailures() {
+    return this.failures;
+  }
+
+  /**
+   * Returns the latency of a phase of the statement.
+   *
+   * @param phase
+   *          the phase of the statement
+   * @return the latency of the phase
+   */
+  public Latency getLatency(StatementPhase phase) {
+    return this.latencies.get(phase);
+  }
+
+  @Override
+  public String toString() {
+    return "StatementMetrics [statement=" + this.statement + ", failures=" + this.failures + ", latencies="
+        + this.latencies + "]";
+  }
+
+  /**
+   * Latency distribution of a phase, in nanoseconds. Percentiles are upper bounds with a relative error of at most
+   * 12.5%.
+   */
+  public static final class Latency {
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    private final long p50Nanos;
+
+    private final long p99Nanos;
+
+    private final long p999Nanos;
+
+    Latency(long count, long totalNanos, long maxNanos, long p50Nanos, long p99Nanos, long p999Nanos) {
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+      this.p50Nanos = p50Nanos;
+      this.p99Nanos = p99Nanos;
+      this.p999Nanos = p999Nanos;
+    }
+
+    public long getCount() {
+      return this.count;
+    }
+
+    public long getTotalNanos() {
+      return this.totalNanos;
+    }
+
+    public long getMeanNanos() {
+      return this.count == 0 ? 0L : this.totalNanos / this.count;
+    }
+
+    public long getMaxNanos() {
+      return this.maxNanos;
+    }
+
+    public long getP50Nanos() {
+      return this.p50Nanos;
+    }
+
+    public long getP99Nanos() {
+      return this.p99Nanos;
+    }
+
+    public long getP999Nanos() {
+      return this.p999Nanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Latency [count=" + this.count + ", mean=" + getMeanNanos() + ", p50=" + this.p50Nanos + ", p99="
+          + this.p99Nanos + ", p999=" + this.p999Nanos + ", max=" + this.maxNanos + "]";
+    }
+  }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * Receives the latency of every statement run through a {@code SqlSessionTemplate}, split by
+ * {@link StatementPhase}.
+ * <p>
+ * Implementations are called on the thread that runs the statement, once per call, so they must be thread safe and
+ * should neither block nor allocate much.
+ *
+ * @since 2.0.7
+ * @see org.mybatis.spring.SqlSessionTemplate#setStatementMetricsRecorder(StatementMetricsRecorder)
+ * @see HistogramStatementMetricsRecorder
+ */
+public interface StatementMetricsRecorder {
+
+  /**
+   * Records one call of a statement. A phase that did not happen is reported with a duration of zero.
+   *
+   * @param statement
+   *          the id of the mapped statement
+   * @param acquireNanos
+   *          the time spent getting the {@code SqlSession}
+   * @param executeNanos
+   *          the time spent running the statement
+   * @param commitNanos
+   *          the time spent completing and releasing the {@code SqlSession}
+   * @param translateNanos
+   *          the time spent translating an exception
+   * @param failed
+   *          whether the call threw an exception
+   */
+  void record(String statement, long acquireNanos, long executeNanos, long commitNanos, long translateNanos,
+      boolean failed);
+
+}
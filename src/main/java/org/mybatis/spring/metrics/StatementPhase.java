@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+/**
+ * The phases of a statement run through a {@code SqlSessionTemplate}, as measured by a
+ * {@link StatementMetricsRecorder}.
+ *
+ * @since 2.0.7
+ */
+public enum StatementPhase {
+
+  /**
+   * Getting the {@code SqlSession}, either from the current transaction or by opening a new one.
+   */
+  ACQUIRE,
+
+  /**
+   * Running the statement.
+   */
+  EXECUTE,
+
+  /**
+   * Completing a non transactional {@code SqlSession} and releasing it.
+   */
+  COMMIT,
+
+  /**
+   * Translating a MyBatis exception into a Spring {@code DataAccessException}.
+   */
+  TRANSLATE
+
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.support;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.ibatis.session.SqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+
+/**
+ * Collects the keys requested one by one and loads them with a single {@code IN} query, in the manner of a DataLoader.
+ * <p>
+ * Each call to {@link #load(Object)} registers a key and returns a future of its row. Pending keys are resolved on
+ * {@link #dispatch()}, when {@code maxBatchSize} keys are pending, or after the batch window if one is set, by running
+ * the configured statement with the list of keys as parameter. The list is available as {@code list} or
+ * {@code collection} in the statement. The rows returned are matched back to their key with the key extractor, and keys
+ * without a row resolve to {@code null}.
+ *
+ * <pre class="code">
+ * {@code
+ * <select id="findUsersByIds" resultType="User">
+ *   SELECT * FROM users WHERE id IN
+ *   <foreach collection="list" item="id" open="(" separator="," close=")">#{id}</foreach>
+ * </select>
+ *
+ * BatchLoader<Long, User> users = new BatchLoader<>(sqlSessionTemplate, "findUsersByIds", User::getId);
+ * List<CompletableFuture<User>> owners = orders.stream().map(order -> users.load(order.getOwnerId()))
+ *     .collect(Collectors.toList());
+ * users.dispatch();
+ * }
+ * </pre>
+ * <p>
+ * The loader caches the future of every key it has been asked for, so a loader is meant to live for one request or
+ * unit of work. It is thread safe, but note that a dispatch made by the scheduler of the batch window runs on a
+ * scheduler thread, so outside the transaction of the callers.
+ *
+ * @param <K>
+ *          the type of the keys
+ * @param <V>
+ *          the type of the loaded rows
+ * @since 2.0.7
+ */
+public class BatchLoader<K, V> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchLoader.class);
+
+  private final SqlSession sqlSession;
+
+  private final String statement;
+
+  private final Function<? super V, ? extends K> keyExtractor;
+
+  private final Map<K, CompletableFuture<V>> cache = new HashMap<>();
+
+  private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+
+  private int maxBatchSize = 500;
+
+  private ScheduledExecutorService scheduler;
+
+  private long batchWindowNanos;
+
+  private ScheduledFuture<?> scheduledDispatch;
+
+  private long dispatchCount;
+
+  /**
+   * Creates a loader that resolves keys with the given statement.
+   *
+   * @param sqlSession
+   *          the session running the statement, usually a {@code SqlSessionTemplate}
+   * @param statement
+   *          the statement selecting the rows whose key is in the list given as parameter
+   * @param keyExtractor
+   *          the function returning the key of a row
+   */
+  public BatchLoader(SqlSession sqlSession, String statement, Function<? super V, ? extends K> keyExtractor) {
+    notNull(sqlSession, "Property 'sqlSession' is required");
+    notNull(statement, "Property 'statement' is required");
+    notNull(keyExtractor, "Property 'keyExtractor' is required");
+    this.sqlSession = sqlSession;
+    this.statement = statement;
+    this.keyExtractor = keyExtractor;
+  }
+
+  /**
+   * Sets the maximum number of keys of one query. Pending keys are dispatched as soon as they reach it, and larger
+   * dispatches are split. Defaults to 500.
+   *
+   * @param maxBatchSize
+   *          the maximum number of keys per query
+   */
+  public void setMaxBatchSize(int maxBatchSize) {
+    isTrue(maxBatchSize > 0, "Property 'maxBatchSize' must be positive");
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public int getMaxBatchSize() {
+    return this.maxBatchSize;
+  }
+
+  /**
+   * Makes the pending keys dispatch automatically, on the given scheduler, once the window has elapsed after the first
+   * of them was requested. By default keys are only dispatched explicitly or when the batch is full.
+   *
+   * @param scheduler
+   *          the scheduler running the dispatches
+   * @param window
+   *          the time to wait for more keys
+   * @param unit
+   *          the unit of the window
+   */
+  public void setBatchWindow(ScheduledExecutorService scheduler, long window, TimeUnit unit) {
+    notNull(scheduler, "Parameter 'scheduler' must be not null");
+    notNull(unit, "Parameter 'unit' must be not null");
+    isTrue(window >= 0, "Parameter 'window' must be positive or zero");
+    synchronized (this) {
+      this.scheduler = scheduler;
+      this.batchWindowNanos = unit.toNanos(window);
+    }
+  }
+
+  /**
+   * Requests the row of the given key. The returned future completes when the key is dispatched, or right away if the
+   * key was already requested from this loader.
+   *
+   * @param key
+   *          the key of the row
+   * @return a future of the row, or of {@code null} if there is none
+   */
+  public CompletableFuture<V> load(K key) {
+    notNull(key, "Parameter 'key' must be not null");
+    CompletableFuture<V> future;
+    boolean full;
+    synchronized (this) {
+      future = this.cache.get(key);
+      if (future != null) {
+        return future;
+      }
+      future = new CompletableFuture<>();
+      this.cache.put(key, future);
+      this.pending.put(key, future);
+      full = this.pending.size() >= this.maxBatchSize;
+      if (!full && this.scheduler != null && this.scheduledDispatch == null) {
+        long count = this.dispatchCount;
+        this.scheduledDispatch = this.scheduler.schedule(() -> dispatch(count), this.batchWindowNanos,
+            TimeUnit.NANOSECONDS);
+      }
+    }
+    if (full) {
+      dispatch();
+    }
+    return future;
+  }
+
+  /**
+   * Loads the rows of the given keys, dispatching them along with any other pending key.
+   *
+   * @param keys
+   *          the keys of the rows
+   * @return the rows keyed by their key, in the order of the keys, with {@code null} values for missing rows
+   */
+  public Map<K, V> loadAll(Collection<? extends K> keys) {
+    notNull(keys, "Parameter 'keys' must be not null");
+    Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+    keys.forEach(key -> futures.put(key, load(key)));
+    dispatch();
+    Map<K, V> rows = new LinkedHashMap<>();
+    futures.forEach((key, future) -> rows.put(key, join(future)));
+    return rows;
+  }
+
+  /**
+   * Resolves all the pending keys, running one query per {@code maxBatchSize} keys.
+   */
+  public void dispatch() {
+    dispatch(-1L);
+  }
+
+  /**
+   * Dispatches the pending keys, unless {@code count} is not negative and keys were dispatched since it was read. This
+   * keeps a batch window that was started before a dispatch from cutting short the window of the next batch, even when
+   * it fires while the dispatch is running.
+   */
+  private void dispatch(long count) {
+    Map<K, CompletableFuture<V>> batch;
+    synchronized (this) {
+      if (count >= 0 && count != this.dispatchCount) {
+        return;
+      }
+      this.dispatchCount++;
+      if (this.scheduledDispatch != null) {
+        this.scheduledDispatch.cancel(false);
+        this.scheduledDispatch = null;
+      }
+      if (this.pending.isEmpty()) {
+        return;
+      }
+      batch = this.pending;
+      this.pending = new LinkedHashMap<>();
+    }
+    List<K> keys = new ArrayList<>(batch.keySet());
+    for (int from = 0; from < keys.size(); from += this.maxBatchSize) {
+      resolve(keys.subList(from, Math.min(from + this.maxBatchSize, keys.size())), batch);
+    }
+  }
+
+  /**
+   * Forgets all the cached rows, so the next loads query them again.
+   */
+  public synchronized void clear() {
+    this.cache.keySet().retainAll(this.pending.keySet());
+  }
+
+  private void resolve(List<K> keys, Map<K, CompletableFuture<V>> batch) {
+    LOGGER.debug(() -> "Loading " + keys.size() + " keys with statement [" + this.statement + "]");
+    Map<K, V> rows = new HashMap<>(keys.size() * 2);
+    try {
+      List<V> results = this.sqlSession.selectList(this.statement, new ArrayList<>(keys));
+      Map<K, Integer> duplicates = null;
+      for (V row : results) {
+        K key = this.keyExtractor.apply(row);
+        if (rows.containsKey(key)) {
+          if (duplicates == null) {
+            duplicates = new HashMap<>();
+          }
+          duplicates.merge(key, 2, (count, one) -> count + 1);
+        } else {
+          rows.put(key, row);
+        }
+      }
+      for (K key : keys) {
+        CompletableFuture<V> future = batch.get(key);
+        Integer count = duplicates != null ? duplicates.get(key) : null;
+        if (count != null) {
+          fail(key, future, new IncorrectResultSizeDataAccessException(1, count));
+        } else {
+          future.complete(rows.get(key));
+        }
+      }
+    } catch (RuntimeException e) {
+      for (K key : keys) {
+        fail(key, batch.get(key), e);
+      }
+    }
+  }
+
+  private void fail(K key, CompletableFuture<V> future, RuntimeException e) {
+    synchronized (this) {
+      // failed keys are queried again on the next load
+      this.cache.remove(key, future);
+    }
+    future.completeExceptionally(e);
+  }
+
+  private static <V> V join(CompletableFuture<V> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the auto-commit state of the connections of a {@code DataSource}, so that a {@link SpringManagedTransaction}
+ * does not ask each non transactional connection for it. Depending on the driver or proxy,
+ * {@code Connection.getAutoCommit()} can be a round-trip to the database or a synchronized call, and it is needed
+ * after every {@code SqlSessionTemplate} call run outside of a transaction.
+ * <p>
+ * The state is either given when it is known from the pool configuration, or learned from the first connection. It is
+ * then assumed for all the connections of the {@code DataSource}, which is only right if the pool hands out all its
+ * connections in the same state, resetting the auto-commit mode of those that are returned to it, as HikariCP or
+ * Commons DBCP do. Otherwise a commit may be skipped.
+ * <p>
+ * It also counts the driver calls made and saved, including those saved for connections bound to a Spring transaction,
+ * whose auto-commit mode never matters.
+ *
+ * @since 2.0.7
+ * @see SpringManagedTransactionFactory#setAutoCommitTracker(AutoCommitTracker)
+ */
+public final class AutoCommitTracker {
+
+  private volatile Boolean autoCommit;
+
+  private final LongAdder driverCalls = new LongAdder();
+
+  private final LongAdder savedCalls = new LongAdder();
+
+  /**
+   * Creates a tracker that learns the auto-commit state from the first connection.
+   */
+  public AutoCommitTracker() {
+    // learns the state from the first connection
+  }
+
+  /**
+   * Creates a tracker for a pool whose connections are known to be in the given auto-commit state.
+   *
+   * @param autoCommit
+   *          the auto-commit state of the connections handed out by the pool
+   */
+  public AutoCommitTracker(boolean autoCommit) {
+    this.autoCommit = autoCommit;
+  }
+
+  /**
+   * Returns the number of {@code Connection.getAutoCommit()} calls made.
+   *
+   * @return the number of driver calls
+   */
+  public long getDriverCalls() {
+    return this.driverCalls.sum();
+  }
+
+  /**
+   * Returns the number of {@code Connection.getAutoCommit()} calls saved.
+   *
+   * @return the number of saved driver calls
+   */
+  public long getSavedCalls() {
+    return this.savedCalls.sum();
+  }
+
+  /**
+   * Forgets the learned auto-commit state, so that it is read again from the next connection, for instance after the
+   * pool configuration changed.
+   */
+  public void reset() {
+    this.autoCommit = null;
+  }
+
+  boolean isAutoCommit(Connection connection) throws SQLException {
+    Boolean known = this.autoCommit;
+    if (known != null) {
+      this.savedCalls.increment();
+      return known;
+    }
+    this.driverCalls.increment();
+    boolean actual = connection.getAutoCommit();
+    this.autoCommit = actual;
+    return actual;
+  }
+
+  void saved() {
+    this.savedCalls.increment();
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import javax.sql.DataSource;
+
+import org.mybatis.spring.SqlSessionUtils;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A {@code DataSourceTransactionManager} that keeps the MyBatis {@code SqlSession}s bound to its transactions in line
+ * with the savepoints it creates, for instance for {@code PROPAGATION_NESTED} transactions.
+ * <p>
+ * Spring does not notify transaction synchronizations of savepoints, so {@code BATCH} statements still pending when a
+ * savepoint is created would run after it, and be undone by a rollback to it, and the local cache of a session would
+ * keep rows that a rollback to a savepoint undid. This transaction manager calls
+ * {@link SqlSessionUtils#beforeSavepoint(DataSource)} and
+ * {@link SqlSessionUtils#beforeRollbackToSavepoint(DataSource)} with its {@code DataSource} so that a nested
+ * transaction that rolls back can be retried within the same outer transaction.
+ *
+ * <pre class="code">
+ * &#64;Bean
+ * public DataSourceTransactionManager transactionManager(DataSource dataSource) {
+ *   return new SavepointAwareDataSourceTransactionManager(dataSource);
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SqlSessionUtils#beforeSavepoint(DataSource)
+ * @see SqlSessionUtils#beforeRollbackToSavepoint(DataSource)
+ */
+public class SavepointAwareDataSourceTransactionManager extends DataSourceTransactionManager {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a transaction manager whose {@code DataSource} has to be set.
+   */
+  public SavepointAwareDataSourceTransactionManager() {
+    super();
+  }
+
+  /**
+   * Creates a transaction manager.
+   *
+   * @param dataSource
+   *          the JDBC DataSource to manage transactions for
+   */
+  public SavepointAwareDataSourceTransactionManager(DataSource dataSource) {
+    super(dataSource);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected DefaultTransactionStatus newTransactionStatus(TransactionDefinition definition, Object transaction,
+      boolean newTransaction, boolean newSynchronization, boolean debug, Object suspendedResources) {
+    boolean actualNewSynchronization = newSynchronization
+        && !TransactionSynchronizationManager.isSynchronizationActive();
+    return new SqlSessionSavepointStatus(obtainDataSource(), transaction, newTransaction, actualNewSynchronization,
+        definition.isReadOnly(), debug, suspendedResources);
+  }
+
+  private static final class SqlSessionSavepointStatus extends DefaultTransactionStatus {
+
+    private final DataSource dataSource;
+
+    SqlSessionSavepointStatus(DataSource dataSource, Object transaction, boolean newTransaction,
+        boolean newSynchronization, boolean readOnly, boolean debug, Object suspendedResources) {
+      super(transaction, newTransaction, newSynchronization, readOnly, debug, suspendedResources);
+      this.dataSource = dataSource;
+    }
+
+    @Override
+    protected SavepointManager getSavepointManager() {
+      return new SqlSessionSavepointManager(this.dataSource, super.getSavepointManager());
+    }
+  }
+
+  private static final class SqlSessionSavepointManager implements SavepointManager {
+
+    private final DataSource dataSource;
+
+    private final SavepointManager delegate;
+
+    SqlSessionSavepointManager(DataSource dataSource, SavepointManager delegate) {
+      this.dataSource = dataSource;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object createSavepoint() throws TransactionException {
+      SqlSessionUtils.beforeSavepoint(this.dataSource);
+      return this.delegate.createSavepoint();
+    }
+
+    @Override
+    public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+      SqlSessionUtils.beforeRollbackToSavepoint(this.dataSource);
+      this.delegate.rollbackToSavepoint(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Object savepoint) throws TransactionException {
+      this.delegate.releaseSavepoint(savepoint);
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.springframework.util.Assert.notNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the key of the shard the statements of the current thread run on.
+ * <p>
+ * A {@link ShardRoutingTransactionFactory} reads it when a session first needs a connection, to pick the
+ * {@code DataSource} of the shard. Keys can be nested, the innermost one applies.
+ *
+ * <pre class="code">
+ * List&lt;Order&gt; orders = ShardKeyHolder.on(tenant.getShard(), () -&gt; orderMapper.findRecent(userId));
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public final class ShardKeyHolder {
+
+  private static final ThreadLocal<Object> SHARD_KEY = new ThreadLocal<>();
+
+  private ShardKeyHolder() {
+    // do nothing
+  }
+
+  /**
+   * Runs the given action on the given shard.
+   *
+   * @param <T>
+   *          the result type
+   * @param shardKey
+   *          the key of the shard
+   * @param action
+   *          the action to run
+   * @return the result of the action
+   */
+  public static <T> T on(Object shardKey, Supplier<T> action) {
+    notNull(shardKey, "Parameter 'shardKey' must be not null");
+    notNull(action, "Parameter 'action' must be not null");
+    Object previous = SHARD_KEY.get();
+    SHARD_KEY.set(shardKey);
+    try {
+      return action.get();
+    } finally {
+      if (previous == null) {
+        SHARD_KEY.remove();
+      } else {
+        SHARD_KEY.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Runs the given action on the given shard.
+   *
+   * @param shardKey
+   *          the key of the shard
+   * @param action
+   *          the action to run
+   */
+  public static void on(Object shardKey, Runnable action) {
+    notNull(action, "Parameter 'action' must be not null");
+    on(shardKey, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * Sets the shard of the current thread until it is {@link #clear() cleared}, for callers that cannot wrap their work
+   * in an action, like servlet filters.
+   *
+   * @param shardKey
+   *          the key of the shard
+   */
+  public static void set(Object shardKey) {
+    notNull(shardKey, "Parameter 'shardKey' must be not null");
+    SHARD_KEY.set(shardKey);
+  }
+
+  /**
+   * Removes the shard of the current thread.
+   */
+  public static void clear() {
+    SHARD_KEY.remove();
+  }
+
+  /**
+   * Returns the shard of the current thread.
+   *
+   * @return the key of the shard, or {@code null} if none is set
+   */
+  public static Object get() {
+    return SHARD_KEY.get();
+  }
+
+}
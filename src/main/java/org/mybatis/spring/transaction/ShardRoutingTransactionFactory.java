@@ -0,0 +1,307 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notEmpty;
+import static org.springframework.util.Assert.notNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Creates transactions that run on the {@code DataSource} of a shard, picked when the session first needs a connection
+ * from the shard key of the current thread. This allows a single {@code SqlSessionFactory}, and a single parsed
+ * {@code Configuration}, to serve several databases holding the same schema.
+ * <p>
+ * The shard key is read from {@link ShardKeyHolder} unless another resolver is set, and falls back to the default shard
+ * if any. Each shard transaction is a {@link SpringManagedTransaction} of the shard {@code DataSource}, so it joins the
+ * Spring transaction or synchronization of that {@code DataSource} and honors the settings of this factory. The
+ * {@code DataSource} of the MyBatis environment is not used to get connections.
+ * <p>
+ * A session, and so a Spring transaction, stays on one shard: a session fails with an {@code IllegalStateException}
+ * when it is asked for a connection of another shard than the one it started on, and so does a session that joins a
+ * Spring transaction already running on another shard, or that is bound to the connection of another shard.
+ * <p>
+ * Second level caches are shared by all the shards, so a row cached from one shard would be returned for another.
+ * {@code SqlSessionFactoryBean} therefore refuses a configuration that has caches, unless shared caches are allowed
+ * with {@link #setAllowSharedCaches(boolean)} because they only hold data that is the same on every shard.
+ *
+ * <pre class="code">
+ * &#64;Bean
+ * public SqlSessionFactory sqlSessionFactory(Map&lt;String, DataSource&gt; shards) throws Exception {
+ *   SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+ *   factoryBean.setDataSource(shards.get("shard0"));
+ *   factoryBean.setTransactionFactory(new ShardRoutingTransactionFactory(shards));
+ *   return factoryBean.getObject();
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public class ShardRoutingTransactionFactory extends SpringManagedTransactionFactory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShardRoutingTransactionFactory.class);
+
+  private final Map<Object, DataSource> shards;
+
+  private final Object resourceKey = new Object();
+
+  private Supplier<?> shardKeyResolver = ShardKeyHolder::get;
+
+  private Object defaultShardKey;
+
+  private boolean allowSharedCaches;
+
+  /**
+   * Creates a factory routing to the given shards.
+   *
+   * @param shards
+   *          the {@code DataSource}s of the shards by shard key
+   */
+  public ShardRoutingTransactionFactory(Map<?, ? extends DataSource> shards) {
+    notEmpty(shards, "Property 'shards' is required");
+    this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+  }
+
+  /**
+   * Returns the {@code DataSource}s of the shards.
+   *
+   * @return the {@code DataSource}s by shard key
+   */
+  public Map<Object, DataSource> getShards() {
+    return this.shards;
+  }
+
+  /**
+   * Sets the shard used when no shard key is set for the current thread. By default a shard key is required.
+   *
+   * @param defaultShardKey
+   *          the key of the default shard, or {@code null} for none
+   */
+  public void setDefaultShardKey(Object defaultShardKey) {
+    isTrue(defaultShardKey == null || this.shards.containsKey(defaultShardKey),
+        () -> "Unknown default shard [" + defaultShardKey + "]");
+    this.defaultShardKey = defaultShardKey;
+  }
+
+  /**
+   * Returns the shard used when no shard key is set for the current thread.
+   *
+   * @return the key of the default shard, or {@code null} if a shard key is required
+   */
+  public Object getDefaultShardKey() {
+    return this.defaultShardKey;
+  }
+
+  /**
+   * Sets whether the configuration using this factory may have second level caches, which all the shards share. They
+   * are refused by default.
+   *
+   * @param allowSharedCaches
+   *          whether the caches of the configuration only hold data that is the same on every shard
+   */
+  public void setAllowSharedCaches(boolean allowSharedCaches) {
+    this.allowSharedCaches = allowSharedCaches;
+  }
+
+  public boolean isAllowSharedCaches() {
+    return this.allowSharedCaches;
+  }
+
+  /**
+   * Checks that the given configuration, whose environment uses this factory, has no second level cache unless shared
+   * caches are allowed. {@code SqlSessionFactoryBean} calls it once the mappers are parsed; caches of mappers added
+   * later are not checked.
+   *
+   * @param configuration
+   *          the configuration using this factory
+   * @throws IllegalStateException
+   *           if the configuration has caches that are not allowed
+   */
+  public void checkCaches(Configuration configuration) {
+    notNull(configuration, "Parameter 'configuration' must be not null");
+    if (!this.allowSharedCaches && !configuration.getCaches().isEmpty()) {
+      throw new IllegalStateException("Second level caches are shared by all the shards, disable them or allow them "
+          + "with setAllowSharedCaches(true) if they only hold data that is the same on every shard: "
+          + configuration.getCacheNames());
+    }
+  }
+
+  /**
+   * Sets what supplies the shard key of the current thread. Defaults to {@link ShardKeyHolder#get()}.
+   *
+   * @param shardKeyResolver
+   *          the supplier of the shard key, returning {@code null} when no shard key is set
+   */
+  public void setShardKeyResolver(Supplier<?> shardKeyResolver) {
+    notNull(shardKeyResolver, "Property 'shardKeyResolver' is required");
+    this.shardKeyResolver = shardKeyResolver;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The given {@code DataSource} is ignored, the one of the shard is picked when the transaction first gets a
+   * connection.
+   */
+  @Override
+  public Transaction newTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
+    return new ShardRoutingTransaction(level, autoCommit);
+  }
+
+  private Object determineShardKey() {
+    Object shardKey = this.shardKeyResolver.get();
+    if (shardKey == null) {
+      shardKey = this.defaultShardKey;
+    }
+    if (shardKey == null) {
+      throw new IllegalStateException("No shard key is set for the current thread and no default shard is configured");
+    }
+    return shardKey;
+  }
+
+  /**
+   * Records the shard of the current Spring transaction, the first time one of its sessions gets a connection, and
+   * checks that later sessions use the same shard.
+   */
+  private void joinTransaction(Object shardKey) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()
+        || !TransactionSynchronizationManager.isActualTransactionActive()) {
+      return;
+    }
+    Object transactionShardKey = TransactionSynchronizationManager.getResource(this.resourceKey);
+    if (transactionShardKey == null) {
+      for (Map.Entry<Object, DataSource> shard : this.shards.entrySet()) {
+        if (!shard.getKey().equals(shardKey) && TransactionSynchronizationManager.hasResource(shard.getValue())) {
+          throw crossShard(shard.getKey(), shardKey);
+        }
+      }
+      LOGGER.debug(() -> "Running transaction on shard [" + shardKey + "]");
+      TransactionSynchronizationManager.bindResource(this.resourceKey, shardKey);
+      TransactionSynchronizationManager.registerSynchronization(new ShardSynchronization(this.resourceKey, shardKey));
+    } else if (!transactionShardKey.equals(shardKey)) {
+      throw crossShard(transactionShardKey, shardKey);
+    }
+  }
+
+  private static IllegalStateException crossShard(Object currentShardKey, Object shardKey) {
+    return new IllegalStateException(
+        "Cannot run statements on shard [" + shardKey + "], the session or transaction runs on shard ["
+        + currentShardKey + "]");
+  }
+
+  private final class ShardRoutingTransaction implements Transaction {
+
+    private final TransactionIsolationLevel level;
+
+    private final boolean autoCommit;
+
+    private Object shardKey;
+
+    private Transaction delegate;
+
+    ShardRoutingTransaction(TransactionIsolationLevel level, boolean autoCommit) {
+      this.level = level;
+      this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      Object currentShardKey = determineShardKey();
+      if (this.delegate == null) {
+        DataSource dataSource = ShardRoutingTransactionFactory.this.shards.get(currentShardKey);
+        if (dataSource == null) {
+          throw new IllegalStateException("No DataSource for shard [" + currentShardKey + "]");
+        }
+        joinTransaction(currentShardKey);
+        this.delegate = ShardRoutingTransactionFactory.super.newTransaction(dataSource, this.level, this.autoCommit);
+        this.shardKey = currentShardKey;
+      } else if (!this.shardKey.equals(currentShardKey)) {
+        throw crossShard(this.shardKey, currentShardKey);
+      }
+      return this.delegate.getConnection();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+      if (this.delegate != null) {
+        this.delegate.commit();
+      }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+      if (this.delegate != null) {
+        this.delegate.rollback();
+      }
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (this.delegate != null) {
+        this.delegate.close();
+      }
+    }
+
+    @Override
+    public Integer getTimeout() throws SQLException {
+      return this.delegate != null ? this.delegate.getTimeout() : null;
+    }
+  }
+
+  private static final class ShardSynchronization extends TransactionSynchronizationAdapter {
+
+    private final Object resourceKey;
+
+    private final Object shardKey;
+
+    ShardSynchronization(Object resourceKey, Object shardKey) {
+      this.resourceKey = resourceKey;
+      this.shardKey = shardKey;
+    }
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.resourceKey);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(this.resourceKey, this.shardKey);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.resourceKey);
+    }
+  }
+
+}
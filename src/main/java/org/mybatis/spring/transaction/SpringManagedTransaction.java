@@ -19,12 +19,16 @@ import static org.springframework.util.Assert.notNull;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.apache.ibatis.transaction.Transaction;
 import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.metrics.LifecycleEvent;
+import org.mybatis.spring.metrics.LifecycleEvents;
 import org.springframework.jdbc.datasource.ConnectionHolder;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
@@ -37,6 +41,11 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * transaction manager will do the job.
  * <p>
  * If it is not it will behave like {@code JdbcTransaction}.
+ * <p>
+ * Within a read-only Spring transaction the connection can be marked read-only too, so that drivers and pools can route
+ * its statements to a replica or skip write tracking. Transaction managers such as {@code DataSourceTransactionManager}
+ * already do it for the transactions they begin, this also covers transactions that only synchronize resources, like a
+ * read-only {@code PROPAGATION_SUPPORTS} scope.
  *
  * @author Hunter Presnall
  * @author Eduardo Macarron
@@ -49,13 +58,57 @@ public class SpringManagedTransaction implements Transaction {
 
   private Connection connection;
 
+  private Connection statementCachingConnection;
+
   private boolean isConnectionTransactional;
 
-  private boolean autoCommit;
+  private Boolean autoCommit;
+
+  private final boolean markReadOnly;
+
+  private final AutoCommitTracker autoCommitTracker;
+
+  private TransactionStatementCache statementCache;
+
+  private boolean readOnly;
+
+  private boolean markedReadOnly;
 
   public SpringManagedTransaction(DataSource dataSource) {
+    this(dataSource, false);
+  }
+
+  /**
+   * Creates a transaction that may mark its connection read-only.
+   *
+   * @param dataSource
+   *          the data source to get the connection from
+   * @param markReadOnly
+   *          whether the connection is marked read-only while the current Spring transaction is read-only
+   * @since 2.0.7
+   */
+  public SpringManagedTransaction(DataSource dataSource, boolean markReadOnly) {
+    this(dataSource, markReadOnly, null);
+  }
+
+  /**
+   * Creates a transaction that may mark its connection read-only and that may take the auto-commit state of its
+   * connection from a tracker.
+   *
+   * @param dataSource
+   *          the data source to get the connection from
+   * @param markReadOnly
+   *          whether the connection is marked read-only while the current Spring transaction is read-only
+   * @param autoCommitTracker
+   *          the tracker of the auto-commit state of the connections of the data source, or {@code null} to ask the
+   *          connection
+   * @since 2.0.7
+   */
+  public SpringManagedTransaction(DataSource dataSource, boolean markReadOnly, AutoCommitTracker autoCommitTracker) {
     notNull(dataSource, "No DataSource specified");
     this.dataSource = dataSource;
+    this.markReadOnly = markReadOnly;
+    this.autoCommitTracker = autoCommitTracker;
   }
 
   /**
@@ -66,20 +119,33 @@ public class SpringManagedTransaction implements Transaction {
     if (this.connection == null) {
       openConnection();
     }
-    return this.connection;
+    return this.statementCachingConnection != null ? this.statementCachingConnection : this.connection;
   }
 
   /**
    * Gets a connection from Spring transaction manager and discovers if this {@code Transaction} should manage
    * connection or let it to Spring.
    * <p>
-   * It also reads autocommit setting because when using Spring Transaction MyBatis thinks that autocommit is always
-   * false and will always call commit/rollback so we need to no-op that calls.
+   * The autocommit setting is read when the connection is first committed or rolled back, and only if it is not
+   * managed by Spring, because MyBatis thinks that autocommit is always false and will always call commit/rollback so
+   * we need to no-op that calls. Without an {@link AutoCommitTracker} it is read from every such connection, so only
+   * the connections managed by Spring are spared the call.
    */
   private void openConnection() throws SQLException {
+    long start = LifecycleEvents.start();
     this.connection = DataSourceUtils.getConnection(this.dataSource);
-    this.autoCommit = this.connection.getAutoCommit();
+    this.autoCommit = null;
     this.isConnectionTransactional = DataSourceUtils.isConnectionTransactional(this.connection, this.dataSource);
+    this.readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    if (this.readOnly && this.markReadOnly && !this.connection.isReadOnly()) {
+      this.connection.setReadOnly(true);
+      this.markedReadOnly = true;
+    }
+    if (this.statementCache != null && this.isConnectionTransactional) {
+      Connection wrapped = this.statementCache.wrap(this.connection, this.dataSource);
+      this.statementCachingConnection = wrapped != this.connection ? wrapped : null;
+    }
+    LifecycleEvents.end(LifecycleEvent.CONNECTION_ACQUIRE, null, start);
 
     LOGGER.debug(() -> "JDBC Connection [" + this.connection + "] will"
         + (this.isConnectionTransactional ? " " : " not ") + "be managed by Spring");
@@ -90,9 +156,11 @@ public class SpringManagedTransaction implements Transaction {
    */
   @Override
   public void commit() throws SQLException {
-    if (this.connection != null && !this.isConnectionTransactional && !this.autoCommit) {
+    if (this.connection != null && !this.isConnectionTransactional && !isAutoCommit()) {
       LOGGER.debug(() -> "Committing JDBC Connection [" + this.connection + "]");
+      long start = LifecycleEvents.start();
       this.connection.commit();
+      LifecycleEvents.end(LifecycleEvent.CONNECTION_COMMIT, null, start);
     }
   }
 
@@ -101,9 +169,11 @@ public class SpringManagedTransaction implements Transaction {
    */
   @Override
   public void rollback() throws SQLException {
-    if (this.connection != null && !this.isConnectionTransactional && !this.autoCommit) {
+    if (this.connection != null && !this.isConnectionTransactional && !isAutoCommit()) {
       LOGGER.debug(() -> "Rolling back JDBC Connection [" + this.connection + "]");
+      long start = LifecycleEvents.start();
       this.connection.rollback();
+      LifecycleEvents.end(LifecycleEvent.CONNECTION_ROLLBACK, null, start);
     }
   }
 
@@ -112,19 +182,72 @@ public class SpringManagedTransaction implements Transaction {
    */
   @Override
   public void close() throws SQLException {
+    long start = LifecycleEvents.start();
+    if (this.connection != null && this.autoCommit == null && this.autoCommitTracker != null) {
+      this.autoCommitTracker.saved();
+    }
+    if (this.markedReadOnly) {
+      this.markedReadOnly = false;
+      try {
+        this.connection.setReadOnly(false);
+      } catch (SQLException e) {
+        LOGGER.debug(() -> "Could not reset read-only flag of JDBC Connection [" + this.connection + "]: " + e);
+      }
+    }
     DataSourceUtils.releaseConnection(this.connection, this.dataSource);
+    LifecycleEvents.end(LifecycleEvent.CONNECTION_CLOSE, null, start);
   }
 
   /**
-   * {@inheritDoc}
+   * Sets the cache of the statements prepared on the connections of actual transactions.
+   */
+  void setStatementCache(TransactionStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  private boolean isAutoCommit() throws SQLException {
+    if (this.autoCommit == null) {
+      this.autoCommit = this.autoCommitTracker != null ? this.autoCommitTracker.isAutoCommit(this.connection)
+          : this.connection.getAutoCommit();
+    }
+    return this.autoCommit;
+  }
+
+  /**
+   * Returns whether the connection was got within a read-only Spring transaction.
+   *
+   * @return {@code true} if the transaction is read-only
+   * @since 2.0.7
+   */
+  public boolean isReadOnly() {
+    return this.readOnly;
+  }
+
+  /**
+   * Returns the timeout of the Spring transaction, or the time left until the {@link StatementDeadline} of the current
+   * thread rounded up to the second, whichever is shorter.
+   *
+   * @throws SQLTimeoutException
+   *           if the deadline of the current thread has passed
    */
   @Override
   public Integer getTimeout() throws SQLException {
+    Integer timeout = null;
     ConnectionHolder holder = (ConnectionHolder) TransactionSynchronizationManager.getResource(dataSource);
     if (holder != null && holder.hasTimeout()) {
-      return holder.getTimeToLiveInSeconds();
+      timeout = holder.getTimeToLiveInSeconds();
+    }
+    long remainingNanos = StatementDeadline.getRemainingNanos();
+    if (remainingNanos != Long.MAX_VALUE) {
+      if (remainingNanos <= 0) {
+        throw new SQLTimeoutException("Statement deadline exceeded by " + (-remainingNanos / 1_000_000) + " ms");
+      }
+      long seconds = (remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+      if (timeout == null || seconds < timeout) {
+        timeout = (int) Math.min(seconds, Integer.MAX_VALUE);
+      }
     }
-    return null;
+    return timeout;
   }
 
 }
@@ -31,12 +31,83 @@ import org.apache.ibatis.transaction.TransactionFactory;
  */
 public class SpringManagedTransactionFactory implements TransactionFactory {
 
+  private boolean markReadOnly;
+
+  private AutoCommitTracker autoCommitTracker;
+
+  private TransactionStatementCache statementCache;
+
+  /**
+   * Sets whether connections got within a read-only Spring transaction are marked read-only, so that drivers and pools
+   * can optimize their statements. A connection marked this way is reset before it is released. Defaults to
+   * {@code false}.
+   *
+   * @param markReadOnly
+   *          whether connections of read-only transactions are marked read-only
+   * @since 2.0.7
+   * @see java.sql.Connection#setReadOnly(boolean)
+   */
+  public void setMarkReadOnly(boolean markReadOnly) {
+    this.markReadOnly = markReadOnly;
+  }
+
+  public boolean isMarkReadOnly() {
+    return this.markReadOnly;
+  }
+
+  /**
+   * Sets the tracker the transactions take the auto-commit state of their non transactional connections from, instead
+   * of asking each connection for it. By default each connection is asked.
+   *
+   * @param autoCommitTracker
+   *          the tracker of the auto-commit state of the connections of the data source
+   * @since 2.0.7
+   */
+  public void setAutoCommitTracker(AutoCommitTracker autoCommitTracker) {
+    this.autoCommitTracker = autoCommitTracker;
+  }
+
+  /**
+   * Returns the tracker of the auto-commit state of the connections.
+   *
+   * @return the tracker, or {@code null} if each connection is asked
+   * @since 2.0.7
+   */
+  public AutoCommitTracker getAutoCommitTracker() {
+    return this.autoCommitTracker;
+  }
+
+  /**
+   * Sets the cache that shares the statements prepared on the connection of a Spring transaction between all the
+   * sessions of the transaction. By default each session prepares its own statements.
+   *
+   * @param statementCache
+   *          the statement cache
+   * @since 2.0.7
+   */
+  public void setStatementCache(TransactionStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /**
+   * Returns the cache of the statements prepared within Spring transactions.
+   *
+   * @return the statement cache, or {@code null} if statements are not cached
+   * @since 2.0.7
+   */
+  public TransactionStatementCache getStatementCache() {
+    return this.statementCache;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public Transaction newTransaction(DataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
-    return new SpringManagedTransaction(dataSource);
+    SpringManagedTransaction transaction = new SpringManagedTransaction(dataSource, this.markReadOnly,
+        this.autoCommitTracker);
+    transaction.setStatementCache(this.statementCache);
+    return transaction;
   }
 
   /**
@@ -52,7 +123,9 @@ public class SpringManagedTransactionFactory implements TransactionFactory {
    */
   @Override
   public void setProperties(Properties props) {
-    // not needed in this version
+    if (props != null && props.getProperty("markReadOnly") != null) {
+      this.markReadOnly = Boolean.parseBoolean(props.getProperty("markReadOnly"));
+    }
   }
 
 }
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Holds the deadline of the statements run by the current thread.
+ * <p>
+ * While an action runs {@link #within(Duration, Supplier) within} a deadline, {@link SpringManagedTransaction} sets the
+ * remaining time, rounded up to the second, as the JDBC query timeout of the statements, unless the timeout of the
+ * Spring transaction is shorter, and fails a statement with a {@code SQLTimeoutException} once the deadline has
+ * passed. When a {@link StatementDeadlineInterceptor} is registered as a plugin, statements still running at their
+ * deadline, or whose calling thread was interrupted, are also cancelled.
+ * <p>
+ * Deadlines can be nested, the earliest one applies. They can also be declared on mapper methods with
+ * {@link org.mybatis.spring.annotation.Deadline}.
+ *
+ * <pre class="code">
+ * List&lt;Order&gt; orders = StatementDeadline.within(Duration.ofMillis(500), () -&gt; orderMapper.findRecent(userId));
+ * </pre>
+ *
+ * @since 2.0.7
+ */
+public final class StatementDeadline {
+
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+  private StatementDeadline() {
+    // do nothing
+  }
+
+  /**
+   * Runs the given action with a deadline for the statements it runs.
+   *
+   * @param <T>
+   *          the result type
+   * @param timeout
+   *          the time the statements have from now on
+   * @param action
+   *          the action to run
+   * @return the result of the action
+   */
+  public static <T> T within(Duration timeout, Supplier<T> action) {
+    notNull(timeout, "Parameter 'timeout' must be not null");
+    notNull(action, "Parameter 'action' must be not null");
+    isTrue(!timeout.isNegative(), "Parameter 'timeout' must be not negative");
+    Long previous = DEADLINE.get();
+    long deadline = System.nanoTime() + timeout.toNanos();
+    if (previous == null || deadline - previous < 0) {
+      DEADLINE.set(deadline);
+    }
+    try {
+      return action.get();
+    } finally {
+      if (previous == null) {
+        DEADLINE.remove();
+      } else {
+        DEADLINE.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Runs the given action with a deadline for the statements it runs.
+   *
+   * @param timeout
+   *          the time the statements have from now on
+   * @param action
+   *          the action to run
+   */
+  public static void within(Duration timeout, Runnable action) {
+    notNull(action, "Parameter 'action' must be not null");
+    within(timeout, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * Returns if the statements of the current thread run within a deadline.
+   *
+   * @return {@code true} if a deadline is set
+   */
+  public static boolean isSet() {
+    return DEADLINE.get() != null;
+  }
+
+  /**
+   * Returns the time left until the deadline of the current thread.
+   *
+   * @return the remaining nanoseconds, negative if the deadline has passed, or {@code Long.MAX_VALUE} if no deadline
+   *         is set
+   */
+  public static long getRemainingNanos() {
+    Long deadline = DEADLINE.get();
+    return deadline != null ? deadline - System.nanoTime() : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns the deadline of the current thread, as a {@code System.nanoTime()} value, or {@code null} if none is set.
+   */
+  static Long getDeadline() {
+    return DEADLINE.get();
+  }
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.springframework.util.Assert.isTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A MyBatis plugin that cancels the statements still running at their {@link StatementDeadline}, or whose calling
+ * thread was interrupted, so that a runaway query releases its connection as soon as its caller gave up on it.
+ * <p>
+ * The JDBC query timeout set from the deadline is only enforced to the second, and by some drivers only on the next
+ * round-trip. This plugin tracks the statements run within a deadline and a background thread checks them at a fixed
+ * interval, calling {@code Statement.cancel()} on the expired ones. A statement that fails after being cancelled fails
+ * with a {@code SQLTimeoutException}. Statements run without a deadline are not tracked.
+ *
+ * <pre class="code">
+ * SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+ * factoryBean.setDataSource(dataSource);
+ * factoryBean.setPlugins(new StatementDeadlineInterceptor());
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see StatementDeadline
+ */
+@Intercepts({
+    @Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }),
+    @Signature(type = StatementHandler.class, method = "queryCursor", args = { Statement.class }),
+    @Signature(type = StatementHandler.class, method = "update", args = { Statement.class }),
+    @Signature(type = StatementHandler.class, method = "batch", args = { Statement.class }) })
+public class StatementDeadlineInterceptor implements Interceptor, DisposableBean {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatementDeadlineInterceptor.class);
+
+  private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder cancelledCount = new LongAdder();
+
+  private final Lock schedulerLock = new ReentrantLock();
+
+  private volatile ScheduledExecutorService scheduler;
+
+  private long checkIntervalMillis = 100;
+
+  /**
+   * Sets how often the background thread checks the running statements, which bounds how late a statement is
+   * cancelled. Defaults to 100 milliseconds.
+   *
+   * @param checkIntervalMillis
+   *          the interval between two checks in milliseconds
+   */
+  public void setCheckIntervalMillis(long checkIntervalMillis) {
+    isTrue(checkIntervalMillis > 0, "Property 'checkIntervalMillis' must be positive");
+    this.checkIntervalMillis = checkIntervalMillis;
+  }
+
+  public long getCheckIntervalMillis() {
+    return this.checkIntervalMillis;
+  }
+
+  /**
+   * Returns the number of statements cancelled so far.
+   *
+   * @return the number of cancelled statements
+   */
+  public long getCancelledCount() {
+    return this.cancelledCount.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setProperties(Properties properties) {
+    String checkInterval = properties.getProperty("checkIntervalMillis");
+    if (checkInterval != null) {
+      setCheckIntervalMillis(Long.parseLong(checkInterval));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Long deadline = StatementDeadline.getDeadline();
+    if (deadline == null) {
+      return invocation.proceed();
+    }
+    startIfNeeded();
+    Watch watch = new Watch((Statement) invocation.getArgs()[0], Thread.currentThread(), deadline);
+    this.watches.add(watch);
+    try {
+      return invocation.proceed();
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getTargetException();
+      if (watch.isCancelled() && cause instanceof SQLException && !(cause instanceof SQLTimeoutException)) {
+        throw new SQLTimeoutException("Statement cancelled " + watch.reason, cause);
+      }
+      throw cause;
+    } finally {
+      this.watches.remove(watch);
+      watch.done();
+    }
+  }
+
+  /**
+   * Cancels the tracked statements whose deadline has passed or whose calling thread was interrupted.
+   */
+  public void check() {
+    long now = System.nanoTime();
+    for (Watch watch : this.watches) {
+      if (now - watch.deadline >= 0) {
+        cancel(watch, "after its deadline");
+      } else if (watch.thread.isInterrupted()) {
+        cancel(watch, "as its calling thread was interrupted");
+      }
+    }
+  }
+
+  /**
+   * Stops the background thread. It is started again if a statement is run within a deadline afterwards.
+   */
+  @Override
+  public void destroy() {
+    this.schedulerLock.lock();
+    try {
+      if (this.scheduler != null) {
+        this.scheduler.shutdownNow();
+        this.scheduler = null;
+      }
+    } finally {
+      this.schedulerLock.unlock();
+    }
+  }
+
+  private void startIfNeeded() {
+    if (this.scheduler != null) {
+      return;
+    }
+    this.schedulerLock.lock();
+    try {
+      if (this.scheduler == null) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mybatis-deadline-watchdog-");
+        threadFactory.setDaemon(true);
+        ScheduledExecutorService newScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        newScheduler.scheduleWithFixedDelay(this::check, this.checkIntervalMillis, this.checkIntervalMillis,
+            TimeUnit.MILLISECONDS);
+        this.scheduler = newScheduler;
+      }
+    } finally {
+      this.schedulerLock.unlock();
+    }
+  }
+
+  private void cancel(Watch watch, String reason) {
+    if (!watch.startCancelling(reason)) {
+      return;
+    }
+    try {
+      LOGGER.debug(() -> "Cancelling statement [" + watch.statement + "] " + reason);
+      watch.statement.cancel();
+      this.cancelledCount.increment();
+    } catch (SQLException | RuntimeException e) {
+      LOGGER.debug(() -> "Could not cancel statement [" + watch.statement + "]: " + e);
+    } finally {
+      watch.cancelled();
+    }
+  }
+
+  /**
+   * A statement being run. Its state makes sure it is never cancelled once its execution has returned, as the
+   * statement may then be reused.
+   */
+  private static final class Watch {
+
+    private static final int RUNNING = 0;
+
+    private static final int CANCELLING = 1;
+
+    private static final int CANCELLED = 2;
+
+    private static final int DONE = 3;
+
+    private final Statement statement;
+
+    private final Thread thread;
+
+    private final long deadline;
+
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+    private volatile String reason;
+
+    Watch(Statement statement, Thread thread, long deadline) {
+      this.statement = statement;
+      this.thread = thread;
+      this.deadline = deadline;
+    }
+
+    boolean startCancelling(String reason) {
+      if (this.state.compareAndSet(RUNNING, CANCELLING)) {
+        this.reason = reason;
+        return true;
+      }
+      return false;
+    }
+
+    void cancelled() {
+      this.state.set(CANCELLED);
+    }
+
+    boolean isCancelled() {
+      int current = this.state.get();
+      return current == CANCELLING || current == CANCELLED;
+    }
+
+    void done() {
+      // wait for a cancellation in progress to complete
+      while (!this.state.compareAndSet(RUNNING, DONE) && this.state.get() == CANCELLING) {
+        Thread.yield();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Decorates a second level cache so that the entries a Spring transaction writes to it are only published once the
+ * transaction has committed.
+ * <p>
+ * MyBatis stages the entries of a session and writes them to the cache when the session commits, which within a Spring
+ * transaction happens right before the transaction commits. While transaction synchronization is active, this
+ * decorator holds back these writes, and the clearing of the cache a write statement asks for, and applies them in
+ * {@code afterCompletion} once the transaction has committed. They are discarded if it rolls back, including when the
+ * commit of the connection itself fails. Outside of transaction synchronization the writes go straight to the cache.
+ * <p>
+ * {@code SqlSessionFactoryBean} decorates the caches of the statements it parses, and {@code MapperFactoryBean} those of
+ * the mappers it adds to the configuration.
+ *
+ * @since 2.0.7
+ * @see #decorateCaches(Configuration)
+ */
+public final class TransactionAwareCache implements Cache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransactionAwareCache.class);
+
+  private final Cache delegate;
+
+  /**
+   * Creates a decorator of the given cache.
+   *
+   * @param delegate
+   *          the decorated cache
+   */
+  public TransactionAwareCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Decorates the caches of all the statements of the given configuration that are not decorated yet. A cache shared by
+   * several statements, or referenced by another namespace, gets a single decorator.
+   *
+   * @param configuration
+   *          the configuration whose statement caches are decorated
+   */
+  public static void decorateCaches(Configuration configuration) {
+    Map<Cache, Cache> decorators = new IdentityHashMap<>();
+    for (Object statement : configuration.getMappedStatements()) {
+      // the statements are also registered by their short names, which may be ambiguous
+      if (statement instanceof MappedStatement) {
+        Cache cache = ((MappedStatement) statement).getCache();
+        if (cache instanceof TransactionAwareCache) {
+          decorators.put(((TransactionAwareCache) cache).delegate, cache);
+        }
+      }
+    }
+    for (Object statement : configuration.getMappedStatements()) {
+      if (statement instanceof MappedStatement) {
+        Cache cache = ((MappedStatement) statement).getCache();
+        if (cache != null && !(cache instanceof TransactionAwareCache)) {
+          MetaObject metaObject = SystemMetaObject.forObject(statement);
+          metaObject.setValue("cache", decorators.computeIfAbsent(cache, TransactionAwareCache::new));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the decorated cache.
+   *
+   * @return the decorated cache
+   */
+  public Cache getDelegate() {
+    return this.delegate;
+  }
+
+  @Override
+  public String getId() {
+    return this.delegate.getId();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Staging staging = staging();
+    if (staging != null) {
+      staging.entries.put(key, value);
+    } else {
+      this.delegate.putObject(key, value);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return this.delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return this.delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    Staging staging = staging();
+    if (staging != null) {
+      staging.entries.clear();
+      staging.clear = true;
+    } else {
+      this.delegate.clear();
+    }
+  }
+
+  @Override
+  public int getSize() {
+    return this.delegate.getSize();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return this.delegate.getReadWriteLock();
+  }
+
+  @Override
+  public int hashCode() {
+    return this.delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return this.delegate.equals(obj);
+  }
+
+  /**
+   * Returns the writes staged by the current transaction, registering them on first use, or {@code null} if
+   * synchronization is not active.
+   */
+  private Staging staging() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return null;
+    }
+    Staging staging = (Staging) TransactionSynchronizationManager.getResource(this);
+    if (staging == null) {
+      staging = new Staging(this);
+      TransactionSynchronizationManager.bindResource(this, staging);
+      TransactionSynchronizationManager.registerSynchronization(staging);
+    }
+    return staging;
+  }
+
+  /**
+   * The writes of a transaction to a cache, applied when it has committed.
+   */
+  private static final class Staging extends TransactionSynchronizationAdapter {
+
+    private final TransactionAwareCache cache;
+
+    private final Map<Object, Object> entries = new LinkedHashMap<>();
+
+    private boolean clear;
+
+    Staging(TransactionAwareCache cache) {
+      this.cache = cache;
+    }
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.cache);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(this.cache, this);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.cache);
+      Cache delegate = this.cache.delegate;
+      if (status == TransactionSynchronization.STATUS_COMMITTED) {
+        LOGGER.debug(() -> "Publishing " + this.entries.size() + " entries to cache [" + delegate.getId() + "]");
+        if (this.clear) {
+          delegate.clear();
+        }
+        this.entries.forEach(delegate::putObject);
+      } else {
+        LOGGER.debug(() -> "Discarding " + this.entries.size() + " entries of cache [" + delegate.getId() + "]");
+        // a blocking cache is unlocked by removing the entries it was locked for
+        this.entries.keySet().forEach(delegate::removeObject);
+      }
+    }
+  }
+
+}
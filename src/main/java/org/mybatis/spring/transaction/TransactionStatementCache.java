@@ -0,0 +1,452 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.springframework.util.Assert.isTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the {@code PreparedStatement}s of the connection of a Spring transaction, so that identical SQL is prepared
+ * once per transaction whichever {@code SqlSession} runs it, for instance when several {@code SqlSessionTemplate}s
+ * with different executor types, or separate sessions, share the transaction.
+ * <p>
+ * When set on a {@link SpringManagedTransactionFactory}, the connections of actual transactions are handed to MyBatis
+ * through a proxy that returns a cached statement for a SQL that was already prepared in the transaction. Closing a
+ * cached statement clears its parameters, its batch and its query timeout, fetch size and row limit, and returns it to
+ * the cache. A statement that is still in use, such as the one of an open cursor or of an outer query of a nested
+ * select, is not shared: a new one is prepared for the other user. The cached statements are closed when the
+ * transaction completes, before its connection is released. Callable statements are not cached.
+ * <p>
+ * The hits and misses of all the transactions are counted. A cache instance is meant to be shared by all the
+ * transactions of a {@code DataSource}.
+ *
+ * <pre class="code">
+ * {@code
+ * TransactionStatementCache statementCache = new TransactionStatementCache();
+ * SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+ * transactionFactory.setStatementCache(statementCache);
+ * ...
+ * double hitRate = statementCache.getHitRate();
+ * }
+ * </pre>
+ *
+ * @since 2.0.7
+ * @see SpringManagedTransactionFactory#setStatementCache(TransactionStatementCache)
+ */
+public class TransactionStatementCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransactionStatementCache.class);
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private int maxStatements = 256;
+
+  /**
+   * Sets the maximum number of statements cached per transaction. The least recently used statement that is not in
+   * use is closed when the limit is exceeded. Defaults to 256.
+   *
+   * @param maxStatements
+   *          the maximum number of cached statements per transaction
+   */
+  public void setMaxStatements(int maxStatements) {
+    isTrue(maxStatements > 0, "Property 'maxStatements' must be positive");
+    this.maxStatements = maxStatements;
+  }
+
+  public int getMaxStatements() {
+    return this.maxStatements;
+  }
+
+  /**
+   * Returns the number of statements that were taken from the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of statements that had to be prepared.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Returns the fraction of the statements that were taken from the cache.
+   *
+   * @return the hit rate, from 0 to 1, or 0 if no statement was prepared
+   */
+  public double getHitRate() {
+    long hitCount = this.hits.sum();
+    long total = hitCount + this.misses.sum();
+    return total == 0 ? 0.0 : (double) hitCount / total;
+  }
+
+  /**
+   * Returns a connection that caches the statements of the given transactional connection until the current
+   * transaction completes, or the connection itself if there is no actual transaction.
+   */
+  Connection wrap(Connection connection, DataSource dataSource) {
+    if (!TransactionSynchronizationManager.isActualTransactionActive()
+        || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      return connection;
+    }
+    CacheKey key = new CacheKey(this, dataSource);
+    ConnectionStatements statements = (ConnectionStatements) TransactionSynchronizationManager.getResource(key);
+    if (statements == null) {
+      statements = new ConnectionStatements(connection);
+      TransactionSynchronizationManager.bindResource(key, statements);
+      TransactionSynchronizationManager.registerSynchronization(new StatementCacheSynchronization(key, statements));
+    } else if (statements.connection != connection || statements.closed) {
+      return connection;
+    }
+    return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+        new Class<?>[] { ConnectionProxy.class }, new CachingConnectionHandler(statements));
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getTargetException();
+    }
+  }
+
+  /**
+   * Binds the statements of a transaction for a cache and a data source.
+   */
+  private static final class CacheKey {
+
+    private final TransactionStatementCache cache;
+
+    private final DataSource dataSource;
+
+    CacheKey(TransactionStatementCache cache, DataSource dataSource) {
+      this.cache = cache;
+      this.dataSource = dataSource;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey otherKey = (CacheKey) other;
+      return this.cache == otherKey.cache && this.dataSource.equals(otherKey.dataSource);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this.cache) * 31 + this.dataSource.hashCode();
+    }
+  }
+
+  /**
+   * Identifies a statement by the {@code prepareStatement} method and the arguments it was prepared with.
+   */
+  private static final class StatementKey {
+
+    private final Class<?>[] parameterTypes;
+
+    private final Object[] args;
+
+    private final int hashCode;
+
+    StatementKey(Method method, Object[] args) {
+      this.parameterTypes = method.getParameterTypes();
+      this.args = args;
+      this.hashCode = Arrays.hashCode(this.parameterTypes) * 31 + Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey otherKey = (StatementKey) other;
+      return Arrays.equals(this.parameterTypes, otherKey.parameterTypes) && Arrays.deepEquals(this.args, otherKey.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hashCode;
+    }
+  }
+
+  /**
+   * The statements cached for the connection of a transaction. It is only used by the thread of the transaction.
+   */
+  private final class ConnectionStatements {
+
+    private final Connection connection;
+
+    private final Map<StatementKey, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean closed;
+
+    ConnectionStatements(Connection connection) {
+      this.connection = connection;
+    }
+
+    PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+      if (this.closed) {
+        return (PreparedStatement) invoke(this.connection, method, args);
+      }
+      StatementKey key = new StatementKey(method, args);
+      CachedStatement cached = this.statements.get(key);
+      if (cached != null && !cached.inUse) {
+        TransactionStatementCache.this.hits.increment();
+        cached.inUse = true;
+        return cached.proxy;
+      }
+      TransactionStatementCache.this.misses.increment();
+      PreparedStatement statement = (PreparedStatement) invoke(this.connection, method, args);
+      if (cached != null) {
+        // shared statements are never used by two callers at a time
+        return statement;
+      }
+      cached = new CachedStatement(this, key, statement);
+      cached.inUse = true;
+      this.statements.put(key, cached);
+      evictIfNeeded();
+      return cached.proxy;
+    }
+
+    void remove(CachedStatement cached) {
+      this.statements.remove(cached.key, cached);
+    }
+
+    private void evictIfNeeded() {
+      Iterator<CachedStatement> iterator = this.statements.values().iterator();
+      while (this.statements.size() > TransactionStatementCache.this.maxStatements && iterator.hasNext()) {
+        CachedStatement eldest = iterator.next();
+        if (!eldest.inUse) {
+          iterator.remove();
+          eldest.closeTarget();
+        }
+      }
+    }
+
+    void close() {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      for (CachedStatement cached : this.statements.values()) {
+        if (!cached.inUse) {
+          cached.closeTarget();
+        }
+      }
+      this.statements.clear();
+    }
+  }
+
+  /**
+   * A cached statement, handed out through a proxy whose {@code close()} returns it to the cache.
+   */
+  private static final class CachedStatement implements InvocationHandler {
+
+    private final ConnectionStatements owner;
+
+    private final StatementKey key;
+
+    private final PreparedStatement target;
+
+    private final PreparedStatement proxy;
+
+    private boolean inUse;
+
+    private boolean batched;
+
+    private boolean settingsChanged;
+
+    CachedStatement(ConnectionStatements owner, StatementKey key, PreparedStatement target) {
+      this.owner = owner;
+      this.key = key;
+      this.target = target;
+      this.proxy = (PreparedStatement) Proxy.newProxyInstance(TransactionStatementCache.class.getClassLoader(),
+          new Class<?>[] { PreparedStatement.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          release();
+          return null;
+        case "isClosed":
+          return !this.inUse || this.target.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Cached statement [" + this.target + "]";
+        case "addBatch":
+          this.batched = true;
+          break;
+        case "setQueryTimeout":
+        case "setFetchSize":
+        case "setMaxRows":
+        case "setLargeMaxRows":
+        case "setFetchDirection":
+          this.settingsChanged = true;
+          break;
+        default:
+          break;
+      }
+      return TransactionStatementCache.invoke(this.target, method, args);
+    }
+
+    private void release() {
+      if (!this.inUse) {
+        return;
+      }
+      this.inUse = false;
+      if (this.owner.closed) {
+        closeTarget();
+        return;
+      }
+      try {
+        this.target.clearParameters();
+        if (this.batched) {
+          this.target.clearBatch();
+          this.batched = false;
+        }
+        if (this.settingsChanged) {
+          this.target.setQueryTimeout(0);
+          this.target.setFetchSize(0);
+          this.target.setMaxRows(0);
+          this.target.setFetchDirection(ResultSet.FETCH_FORWARD);
+          this.settingsChanged = false;
+        }
+      } catch (SQLException | RuntimeException e) {
+        LOGGER.debug(() -> "Could not reset statement [" + this.target + "], closing it: " + e);
+        this.owner.remove(this);
+        closeTarget();
+      }
+    }
+
+    void closeTarget() {
+      try {
+        this.target.close();
+      } catch (SQLException | RuntimeException e) {
+        LOGGER.debug(() -> "Could not close statement [" + this.target + "]: " + e);
+      }
+    }
+  }
+
+  /**
+   * Hands out cached statements for the connection of a transaction.
+   */
+  private static final class CachingConnectionHandler implements InvocationHandler {
+
+    private final ConnectionStatements statements;
+
+    CachingConnectionHandler(ConnectionStatements statements) {
+      this.statements = statements;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "prepareStatement":
+          return this.statements.prepare(method, args);
+        case "getTargetConnection":
+          return this.statements.connection;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Statement caching proxy for [" + this.statements.connection + "]";
+        default:
+          return TransactionStatementCache.invoke(this.statements.connection, method, args);
+      }
+    }
+  }
+
+  /**
+   * Closes the statements of a transaction before its connection is released, and keeps them bound, but closed, until
+   * it completes so that statements prepared meanwhile are not cached.
+   */
+  private static final class StatementCacheSynchronization extends TransactionSynchronizationAdapter {
+
+    private final CacheKey key;
+
+    private final ConnectionStatements statements;
+
+    StatementCacheSynchronization(CacheKey key, ConnectionStatements statements) {
+      this.key = key;
+      this.statements = statements;
+    }
+
+    @Override
+    public int getOrder() {
+      return DataSourceUtils.CONNECTION_SYNCHRONIZATION_ORDER - 1;
+    }
+
+    @Override
+    public void suspend() {
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.key);
+    }
+
+    @Override
+    public void resume() {
+      TransactionSynchronizationManager.bindResource(this.key, this.statements);
+    }
+
+    @Override
+    public void beforeCompletion() {
+      this.statements.close();
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      this.statements.close();
+      TransactionSynchronizationManager.unbindResourceIfPossible(this.key);
+    }
+  }
+
+}
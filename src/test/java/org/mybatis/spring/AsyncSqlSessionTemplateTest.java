@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class AsyncSqlSessionTemplateTest extends AbstractMyBatisSpringTest {
+
+  private static ExecutorService executor;
+
+  private static AsyncSqlSessionTemplate asyncTemplate;
+
+  @BeforeAll
+  static void setupAsyncTemplate() {
+    executor = Executors.newSingleThreadExecutor();
+    asyncTemplate = new AsyncSqlSessionTemplate(new SqlSessionTemplate(sqlSessionFactory), executor);
+  }
+
+  @AfterAll
+  static void shutdownExecutor() {
+    executor.shutdown();
+  }
+
+  @Test
+  void testSelectOneAsync() throws Exception {
+    CompletableFuture<Integer> result = asyncTemplate.selectOneAsync("org.mybatis.spring.TestMapper.findTest");
+
+    assertThat(result.get()).isEqualTo(1);
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testExceptionTranslation() {
+    connection.getPreparedStatementResultSetHandler().prepareThrowsSQLException("SELECT 'fail'");
+
+    CompletableFuture<Integer> result = asyncTemplate.selectOneAsync("org.mybatis.spring.TestMapper.findFail");
+
+    ExecutionException e = assertThrows(ExecutionException.class, result::get);
+    assertThat(e.getCause()).isInstanceOf(DataAccessException.class);
+  }
+
+  @Test
+  void testTaskDoesNotJoinTransaction() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    try {
+      // the task runs on another thread so it gets a new connection that is committed on its own
+      asyncTemplate.selectOneAsync("org.mybatis.spring.TestMapper.findTest").get();
+      assertCommitSession();
+      assertThat(connectionTwo.getNumberCommits()).as("should call commit on the task Connection").isEqualTo(1);
+    } finally {
+      txManager.rollback(status);
+    }
+    assertThat(connection.getNumberCommits()).as("should not call commit on the tx Connection").isEqualTo(0);
+  }
+
+  @Test
+  void testRejectedTaskFailsItsFuture() throws Exception {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+    AsyncSqlSessionTemplate template = new AsyncSqlSessionTemplate(new SqlSessionTemplate(sqlSessionFactory), pool);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      CompletableFuture<Integer> running = template.executeAsync(sqlSession -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return sqlSession.selectOne("org.mybatis.spring.TestMapper.findTest");
+      });
+      started.await();
+      CompletableFuture<Integer> queued = template.executeAsync(sqlSession -> 2);
+
+      // the only thread is busy and the queue is full
+      CompletableFuture<Integer> rejected = template.executeAsync(sqlSession -> 3);
+
+      assertThat(rejected).isCompletedExceptionally();
+      ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+      assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+
+      release.countDown();
+      assertThat(running.get()).isEqualTo(1);
+      assertThat(queued.get()).isEqualTo(2);
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+}
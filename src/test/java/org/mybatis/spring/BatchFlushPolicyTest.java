@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class BatchFlushPolicyTest extends AbstractMyBatisSpringTest {
+
+  private SqlSessionTemplate sqlSessionTemplate;
+
+  private BatchFlushPolicy policy;
+
+  private final List<BatchResult> results = new ArrayList<>();
+
+  @BeforeEach
+  void setupTemplate() {
+    // this query must be the same as the query in TestMapper.xml
+    connection.getPreparedStatementResultSetHandler()
+        .addPreparedStatement(new MockPreparedStatement(connection, "INSERT ? INTO test"));
+
+    policy = new BatchFlushPolicy();
+    policy.setResultHandler(results::addAll);
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH);
+    sqlSessionTemplate.setBatchFlushPolicy(policy);
+  }
+
+  @Test
+  void testFlushAfterMaxStatements() {
+    policy.setMaxStatements(2);
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    for (int i = 0; i < 5; i++) {
+      sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test" + i);
+    }
+
+    assertExecuteCount(4);
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0).getParameterObjects()).hasSize(2);
+
+    txManager.commit(status);
+
+    assertCommit();
+    assertSingleConnection();
+    assertExecuteCount(5);
+  }
+
+  @Test
+  void testFlushAfterMaxBytes() {
+    policy.setMaxStatements(0);
+    policy.setMaxBytes(1200);
+    policy.setSizeEstimator(parameter -> 300);
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    for (int i = 0; i < 3; i++) {
+      sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test" + i);
+    }
+
+    assertExecuteCount(0);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test3");
+
+    assertExecuteCount(4);
+    assertThat(results).hasSize(1);
+
+    txManager.commit(status);
+
+    assertCommit();
+    assertExecuteCount(4);
+  }
+
+  @Test
+  void testExplicitFlushResetsPendingStatements() {
+    policy.setMaxStatements(3);
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test0");
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test1");
+    sqlSessionTemplate.flushStatements();
+
+    assertExecuteCount(2);
+
+    // the two statements flushed explicitly no longer count towards the limit
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test2");
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test3");
+
+    assertExecuteCount(2);
+    assertThat(results).isEmpty();
+
+    txManager.commit(status);
+
+    assertCommit();
+    assertExecuteCount(4);
+  }
+
+  @Test
+  void testNoFlushWithoutTransaction() {
+    policy.setMaxStatements(1);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test");
+
+    // the session is committed after every call outside a transaction
+    assertThat(results).isEmpty();
+    assertExecuteCount(1);
+  }
+
+}
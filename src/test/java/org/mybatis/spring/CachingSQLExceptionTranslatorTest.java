@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+
+class CachingSQLExceptionTranslatorTest {
+
+  private final CountingTranslator delegate = new CountingTranslator();
+
+  private final CachingSQLExceptionTranslator translator = new CachingSQLExceptionTranslator(delegate);
+
+  @Test
+  void shouldRememberRecurringTranslations() {
+    DataAccessException first = translator.translate("insert", null, new SQLException("first", "23505", 23505));
+    DataAccessException second = translator.translate("insert", null, new SQLException("second", "23505", 23505));
+
+    assertThat(first).isInstanceOf(DuplicateKeyException.class);
+    assertThat(second).isInstanceOf(DuplicateKeyException.class).hasMessageContaining("insert; second");
+    assertThat(second.getCause()).hasMessage("second");
+    assertThat(delegate.translations.get()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotRememberTranslationsThatCannotBeRebuilt() {
+    // BadSqlGrammarException has no (String, Throwable) constructor
+    translator.translate("select", null, new SQLException("first", "42000", 42001));
+    DataAccessException second = translator.translate("select", null, new SQLException("second", "42000", 42001));
+
+    assertThat(second).isInstanceOf(BadSqlGrammarException.class);
+    assertThat(delegate.translations.get()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldNotRememberBatchTranslations() {
+    translator.translate("batch", null, new BatchUpdateException("first", "23505", 23505, new int[0]));
+    translator.translate("batch", null, new BatchUpdateException("second", "23505", 23505, new int[0]));
+
+    assertThat(delegate.translations.get()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldNotMixErrorCodes() {
+    translator.translate("insert", null, new SQLException("duplicate", "23505", 23505));
+    DataAccessException other = translator.translate("select", null, new SQLException("grammar", "42000", 42001));
+
+    assertThat(other).isInstanceOf(BadSqlGrammarException.class);
+  }
+
+  @Test
+  void shouldNotRememberTranslationsOfCauses() {
+    SQLException duplicate = new SQLException("wrapped", "HY000", 0, new SQLException("duplicate", "23505", 23505));
+    SQLException notNull = new SQLException("wrapped", "HY000", 0, new SQLException("not null", "23502", 23502));
+
+    DataAccessException first = translator.translate("insert", null, duplicate);
+    DataAccessException second = translator.translate("insert", null, notNull);
+
+    // the vendor code is taken from the cause, so both translations differ
+    assertThat(first).isInstanceOf(DuplicateKeyException.class);
+    assertThat(second).isInstanceOf(DataIntegrityViolationException.class).isNotInstanceOf(DuplicateKeyException.class);
+    assertThat(delegate.translations.get()).isEqualTo(2);
+  }
+
+  private static final class CountingTranslator extends SQLErrorCodeSQLExceptionTranslator {
+
+    private final AtomicInteger translations = new AtomicInteger();
+
+    CountingTranslator() {
+      super("H2");
+    }
+
+    @Override
+    protected DataAccessException customTranslate(String task, String sql, SQLException sqlEx) {
+      translations.incrementAndGet();
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mockrunner.mock.jdbc.MockPreparedStatement;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+
+class CursorPublisherTest extends AbstractMyBatisSpringTest {
+
+  private static SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeAll
+  static void setupSqlTemplate() {
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+  }
+
+  @Test
+  void testRowsAreEmittedOnDemand() {
+    CursorPublisher<Integer> publisher = new CursorPublisher<>(sqlSessionTemplate,
+        "org.mybatis.spring.TestMapper.findTest", null);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    publisher.subscribe(subscriber);
+    assertThat(subscriber.items).isEmpty();
+    assertThat(executorInterceptor.isExecutorClosed()).isFalse();
+
+    subscriber.subscription.request(1);
+    assertThat(subscriber.items).containsExactly(1);
+    assertThat(subscriber.completed).isFalse();
+
+    subscriber.subscription.request(1);
+    assertThat(subscriber.completed).isTrue();
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testCancelReleasesSession() {
+    CursorPublisher<Integer> publisher = new CursorPublisher<>(sqlSessionTemplate,
+        "org.mybatis.spring.TestMapper.findTest", null);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    publisher.subscribe(subscriber);
+    subscriber.subscription.cancel();
+
+    assertThat(subscriber.items).isEmpty();
+    assertThat(subscriber.completed).isFalse();
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+  }
+
+  @Test
+  void testQueryErrorIsTranslated() {
+    connection.getPreparedStatementResultSetHandler().prepareThrowsSQLException("SELECT 'fail'");
+    CursorPublisher<Integer> publisher = new CursorPublisher<>(sqlSessionTemplate,
+        "org.mybatis.spring.TestMapper.findFail", null);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    publisher.subscribe(subscriber);
+
+    assertThat(subscriber.error).isInstanceOf(DataAccessException.class);
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+  }
+
+  @Test
+  void testFetchSize() throws SQLException {
+    CursorPublisher<Integer> publisher = new CursorPublisher<>(sqlSessionTemplate,
+        "org.mybatis.spring.TestMapper.findTest", null);
+    publisher.setFetchSize(500);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    assertThat(subscriber.items).containsExactly(1);
+    assertThat(subscriber.completed).isTrue();
+    List<MockPreparedStatement> statements = connection.getPreparedStatementResultSetHandler()
+        .getPreparedStatements();
+    assertThat(statements).hasSize(1);
+    assertThat(statements.get(0).getFetchSize()).isEqualTo(500);
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+  }
+
+  @Test
+  void testFailingSubscriberReleasesSession() {
+    CursorPublisher<Integer> publisher = new CursorPublisher<>(sqlSessionTemplate,
+        "org.mybatis.spring.TestMapper.findTest", null);
+    RecordingSubscriber subscriber = new RecordingSubscriber() {
+      @Override
+      public void onNext(Integer item) {
+        throw new IllegalStateException("failed");
+      }
+    };
+
+    publisher.subscribe(subscriber);
+
+    assertThrows(IllegalStateException.class, () -> subscriber.subscription.request(1));
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+    assertThat(subscriber.error).isNull();
+
+    // the subscription is cancelled
+    subscriber.subscription.request(1);
+    assertThat(subscriber.completed).isFalse();
+  }
+
+  private static class RecordingSubscriber implements CursorPublisher.Subscriber<Integer> {
+
+    private final List<Integer> items = new ArrayList<>();
+
+    private CursorPublisher.Subscription subscription;
+
+    private Throwable error;
+
+    private boolean completed;
+
+    @Override
+    public void onSubscribe(CursorPublisher.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Integer item) {
+      this.items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+    }
+  }
+
+}
@@ -21,8 +21,13 @@ import static org.junit.jupiter.api.Assertions.fail;
 
 import com.mockrunner.mock.ejb.MockUserTransaction;
 import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockDatabaseMetaData;
 import com.mockrunner.mock.jdbc.MockDataSource;
 import com.mockrunner.mock.jdbc.MockPreparedStatement;
+import com.mockrunner.mock.jdbc.MockSavepoint;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.mapping.Environment;
@@ -32,11 +37,15 @@ import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.mybatis.spring.transaction.SavepointAwareDataSourceTransactionManager;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.jta.JtaTransactionManager;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 class MyBatisSpringTest extends AbstractMyBatisSpringTest {
 
@@ -222,23 +231,139 @@ class MyBatisSpringTest extends AbstractMyBatisSpringTest {
 
   @Test
   void testChangeExecutorTypeInTx() throws Exception {
-    TransactionStatus status = null;
+    setupBatchStatements();
 
-    try {
-      status = txManager.getTransaction(new DefaultTransactionDefinition());
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
 
-      session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
 
-      assertThrows(TransientDataAccessResourceException.class,
-          () -> session = SqlSessionUtils.getSqlSession(sqlSessionFactory, ExecutorType.BATCH, exceptionTranslator));
+    SqlSession batchSession = SqlSessionUtils.getSqlSession(sqlSessionFactory, ExecutorType.BATCH,
+        exceptionTranslator);
+    assertThat(batchSession).isNotSameAs(session);
+    assertThat(SqlSessionUtils.isSqlSessionTransactional(batchSession, sqlSessionFactory)).isTrue();
 
-      // fail("should not be able to change the Executor type during an existing transaction");
-    } finally {
-      SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    batchSession.getMapper(TestMapper.class).insertTest("test1");
+    batchSession.getMapper(TestMapper.class).insertTest("test2");
+    SqlSessionUtils.closeSqlSession(batchSession, sqlSessionFactory);
 
-      // rollback required to close connection
-      txManager.rollback(status);
-    }
+    assertExecuteCount(0);
+
+    // the pending batch statements run before the statements of another executor
+    assertThat(SqlSessionUtils.getSqlSession(sqlSessionFactory)).isSameAs(session);
+    assertExecuteCount(2);
+
+    session.getMapper(TestMapper.class).findTest();
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    txManager.commit(status);
+
+    assertCommitJdbc();
+    assertThat(executorInterceptor.getCommitCount()).as("should call commit on both SqlSessions").isEqualTo(2);
+    assertSingleConnection();
+    assertExecuteCount(3);
+  }
+
+  @Test
+  void testBatchFlushedInReadOnlyTx() {
+    setupBatchStatements();
+
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory, ExecutorType.BATCH, exceptionTranslator);
+    session.getMapper(TestMapper.class).insertTest("test1");
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    assertExecuteCount(0);
+
+    txManager.commit(status);
+
+    // the statements pending in a read-only transaction are not dropped
+    assertExecuteCount(1);
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testBatchFlushedAroundSavepoint() throws Exception {
+    setupBatchStatements();
+    ((MockDatabaseMetaData) connection.getMetaData()).setSupportsSavepoints(true);
+    SavepointAwareDataSourceTransactionManager manager = new SavepointAwareDataSourceTransactionManager(dataSource);
+
+    TransactionStatus status = manager.getTransaction(new DefaultTransactionDefinition());
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory, ExecutorType.BATCH, exceptionTranslator);
+    session.getMapper(TestMapper.class).insertTest("test1");
+    assertExecuteCount(0);
+
+    // the statements pending before the savepoint run before it
+    TransactionStatus nested = manager
+        .getTransaction(new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
+    assertExecuteCount(1);
+
+    session.getMapper(TestMapper.class).insertTest("test2");
+    assertExecuteCount(1);
+
+    // the statements pending since the savepoint run before the rollback to it undoes them
+    manager.rollback(nested);
+    assertExecuteCount(2);
+
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    manager.commit(status);
+
+    assertCommitToSavepointJdbc();
+    assertSingleConnection();
+    assertExecuteCount(2);
+  }
+
+  @Test
+  void testLocalCacheClearedOnRollbackToSavepoint() throws Exception {
+    ((MockDatabaseMetaData) connection.getMetaData()).setSupportsSavepoints(true);
+    SavepointAwareDataSourceTransactionManager manager = new SavepointAwareDataSourceTransactionManager(dataSource);
+
+    TransactionStatus status = manager.getTransaction(new DefaultTransactionDefinition());
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    TransactionStatus nested = manager
+        .getTransaction(new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
+    session.getMapper(TestMapper.class).findTest();
+    session.getMapper(TestMapper.class).findTest();
+    assertExecuteCount(1);
+
+    // the rows read since the savepoint may have been rolled back
+    manager.rollback(nested);
+    session.getMapper(TestMapper.class).findTest();
+    assertExecuteCount(2);
+
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    manager.commit(status);
+
+    assertCommitToSavepointJdbc();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testSavepointOfOtherDataSourceIgnored() {
+    setupBatchStatements();
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory, ExecutorType.BATCH, exceptionTranslator);
+    session.getMapper(TestMapper.class).insertTest("test1");
+
+    // a savepoint on a connection of another DataSource does not apply to this session
+    SqlSessionUtils.beforeSavepoint(new MockDataSource());
+    assertExecuteCount(0);
+
+    SqlSessionUtils.beforeSavepoint(dataSource);
+    assertExecuteCount(1);
+
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    txManager.commit(status);
+
+    assertCommit();
+    assertSingleConnection();
   }
 
   @Test
@@ -395,6 +520,48 @@ class MyBatisSpringTest extends AbstractMyBatisSpringTest {
     assertSingleConnection();
   }
 
+  @Test
+  void testSqlSessionClosedBeforeCompletion() {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session.getMapper(TestMapper.class).findTest();
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    AtomicInteger commitsBeforeCompletion = new AtomicInteger(-1);
+    AtomicBoolean closedBeforeCompletion = new AtomicBoolean();
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void beforeCompletion() {
+        commitsBeforeCompletion.set(executorInterceptor.getCommitCount());
+        closedBeforeCompletion.set(executorInterceptor.isExecutorClosed());
+      }
+    });
+
+    txManager.commit(status);
+
+    // afterCompletion may run on another thread, so the SqlSession is committed and closed before
+    assertThat(commitsBeforeCompletion.get()).isEqualTo(1);
+    assertThat(closedBeforeCompletion.get()).isTrue();
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testSqlSessionRollbackWithTx() {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session.getMapper(TestMapper.class).findTest();
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    txManager.rollback(status);
+
+    // the SqlSession is rolled back to discard the 2nd level cache entries it staged
+    assertRollback();
+    assertSingleConnection();
+  }
+
   @Test
   void testSqlSessionCommitWithTx() {
     DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
@@ -592,6 +759,13 @@ class MyBatisSpringTest extends AbstractMyBatisSpringTest {
     assertThrows(DataAccessException.class, () -> txManager.commit(status));
   }
 
+  private void assertCommitToSavepointJdbc() {
+    // the rollback to the savepoint is the only rollback of the connection
+    assertThat(connection.getNumberCommits()).as("should call commit on Connection").isEqualTo(1);
+    assertThat(connection.getNumberRollbacks()).as("should only roll back to the savepoint").isEqualTo(1);
+    assertThat(connection.getSavepointMap().values()).singleElement().matches(MockSavepoint::isRolledBack);
+  }
+
   private void setupBatchStatements() {
     // these queries must be the same as the query in TestMapper.xml
     connection.getPreparedStatementResultSetHandler()
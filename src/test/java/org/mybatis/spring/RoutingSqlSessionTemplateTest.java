@@ -0,0 +1,259 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.mockrunner.mock.jdbc.MockConnection;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class RoutingSqlSessionTemplateTest extends AbstractMyBatisSpringTest {
+
+  private static PooledMockDataSource replicaDataSource = new PooledMockDataSource();
+
+  private static PooledMockDataSource otherReplicaDataSource = new PooledMockDataSource();
+
+  private static SqlSessionFactory replicaSqlSessionFactory;
+
+  private static SqlSessionFactory otherReplicaSqlSessionFactory;
+
+  private MockConnection replicaConnection;
+
+  private MockConnection otherReplicaConnection;
+
+  @BeforeAll
+  static void setupReplicas() throws Exception {
+    replicaSqlSessionFactory = createSqlSessionFactory(replicaDataSource);
+    otherReplicaSqlSessionFactory = createSqlSessionFactory(otherReplicaDataSource);
+  }
+
+  private static SqlSessionFactory createSqlSessionFactory(PooledMockDataSource dataSource) throws Exception {
+    SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+    factoryBean.setMapperLocations(new ClassPathResource("org/mybatis/spring/TestMapper.xml"));
+    factoryBean.setDataSource(dataSource);
+    return factoryBean.getObject();
+  }
+
+  @BeforeEach
+  void setupReplicaConnections() {
+    replicaDataSource.reset();
+    replicaConnection = createMockConnection();
+    replicaDataSource.addConnection(replicaConnection);
+    otherReplicaDataSource.reset();
+    otherReplicaConnection = createMockConnection();
+    otherReplicaDataSource.addConnection(otherReplicaConnection);
+  }
+
+  @AfterEach
+  void validateReplicaConnectionsClosed() throws SQLException {
+    if (replicaDataSource.getConnectionCount() > 0) {
+      assertConnectionClosed(replicaConnection);
+    }
+    if (otherReplicaDataSource.getConnectionCount() > 0) {
+      assertConnectionClosed(otherReplicaConnection);
+    }
+    if (dataSource.getConnectionCount() == 0) {
+      connection.close(); // the primary was not used
+    }
+  }
+
+  @Test
+  void testSelectWithNoTxUsesReplica() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    assertThat(template.getMapper(TestMapper.class).findTest()).isEqualTo(1);
+
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(replicaConnection.getNumberCommits()).isEqualTo(1);
+    assertThat(dataSource.getConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  void testInsertWithNoTxUsesPrimary() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    template.getMapper(TestMapper.class).insertTest("test1");
+
+    assertCommit();
+    assertSingleConnection();
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  void testReadOnlyTxStaysOnReplica() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory, otherReplicaSqlSessionFactory));
+
+    DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+    definition.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(definition);
+    template.getMapper(TestMapper.class).findTest();
+    template.getMapper(TestMapper.class).findTest();
+    txManager.commit(status);
+
+    // both calls ran on the first replica, with the connection bound to the transaction
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(replicaConnection.getPreparedStatementResultSetHandler().getExecutedStatements()).hasSize(1);
+    assertThat(otherReplicaDataSource.getConnectionCount()).isEqualTo(0);
+    assertExecuteCount(0);
+  }
+
+  @Test
+  void testReadWriteTxUsesPrimary() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    template.getMapper(TestMapper.class).findTest();
+    txManager.commit(status);
+
+    assertCommitJdbc();
+    assertSingleConnection();
+    assertExecuteCount(1);
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  void testWriteInSupportsScopeUsesPrimary() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    TransactionTemplate transactionTemplate = new TransactionTemplate(txManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_SUPPORTS);
+    transactionTemplate.executeWithoutResult(status -> {
+      TestMapper mapper = template.getMapper(TestMapper.class);
+      mapper.findTest();
+      mapper.insertTest("test1");
+      // the read follows the write to the primary
+      mapper.findTest();
+    });
+
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(replicaConnection.getPreparedStatementResultSetHandler().getExecutedStatements()).hasSize(1);
+    assertSingleConnection();
+    assertExecuteCount(2);
+  }
+
+  @Test
+  void testWriteInReadOnlyTxStaysOnReplica() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+    definition.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(definition);
+    template.getMapper(TestMapper.class).findTest();
+    template.getMapper(TestMapper.class).insertTest("test1");
+    template.flushStatements();
+    txManager.commit(status);
+
+    // the transaction runs on a single database
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(replicaConnection.getPreparedStatementResultSetHandler().getExecutedStatements()).hasSize(2);
+    assertExecuteCount(0);
+  }
+
+  @Test
+  void testClearCacheInReadOnlyTxKeepsReplica() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory));
+
+    DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+    definition.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(definition);
+    template.clearCache();
+    template.getMapper(TestMapper.class).findTest();
+    template.clearCache();
+    template.getMapper(TestMapper.class).findTest();
+    txManager.commit(status);
+
+    // clearing the caches does not bind a SqlSession of the primary, and clears the one of the replica
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(replicaConnection.getPreparedStatementResultSetHandler().getExecutedStatements()).hasSize(2);
+    assertExecuteCount(0);
+  }
+
+  @Test
+  void testSupportsScopeStaysOnReplica() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory, otherReplicaSqlSessionFactory));
+
+    TransactionTemplate transactionTemplate = new TransactionTemplate(txManager);
+    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_SUPPORTS);
+    transactionTemplate.executeWithoutResult(status -> {
+      template.getMapper(TestMapper.class).findTest();
+      template.getMapper(TestMapper.class).findTest();
+    });
+
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(otherReplicaDataSource.getConnectionCount()).isEqualTo(0);
+    assertThat(dataSource.getConnectionCount()).isEqualTo(0);
+
+    // the next scope picks a replica again
+    transactionTemplate.executeWithoutResult(status -> template.getMapper(TestMapper.class).findTest());
+
+    assertThat(otherReplicaDataSource.getConnectionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testRoundRobin() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory, otherReplicaSqlSessionFactory));
+
+    template.getMapper(TestMapper.class).findTest();
+    template.getMapper(TestMapper.class).findTest();
+
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(otherReplicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(dataSource.getConnectionCount()).isEqualTo(0);
+  }
+
+  @Test
+  void testLeastInFlight() {
+    RoutingSqlSessionTemplate template = new RoutingSqlSessionTemplate(sqlSessionFactory,
+        Arrays.asList(replicaSqlSessionFactory, otherReplicaSqlSessionFactory));
+    template.setReplicaSelection(ReplicaSelection.LEAST_IN_FLIGHT);
+
+    MockConnection secondConnection = createMockConnection();
+    otherReplicaDataSource.addConnection(secondConnection);
+
+    // the first replica is busy while the nested queries are routed, so both go to the other one
+    template.select("org.mybatis.spring.TestMapper.findTest", context -> {
+      template.getMapper(TestMapper.class).findTest();
+      template.getMapper(TestMapper.class).findTest();
+    });
+
+    assertThat(replicaDataSource.getConnectionCount()).isEqualTo(1);
+    assertThat(otherReplicaDataSource.getConnectionCount()).isEqualTo(2);
+    assertConnectionClosed(secondConnection);
+  }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SelectCoalescer.Method;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class SelectCoalescerTest extends AbstractMyBatisSpringTest {
+
+  private static final String STATEMENT = "org.mybatis.spring.TestMapper.findTest";
+
+  @Test
+  void testConcurrentCallsShareOneExecution() throws Exception {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<List<Integer>> leader = CompletableFuture.supplyAsync(
+        () -> coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT, () -> {
+          executions.incrementAndGet();
+          started.countDown();
+          await(release);
+          return Arrays.asList(1, 2);
+        }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    CompletableFuture<List<Integer>> follower = CompletableFuture.supplyAsync(
+        () -> coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT, () -> {
+          executions.incrementAndGet();
+          return Arrays.asList(3, 4);
+        }));
+    // the follower must not be able to run before the leader completes
+    Thread.sleep(100);
+    release.countDown();
+
+    assertThat(leader.get(5, TimeUnit.SECONDS)).containsExactly(1, 2);
+    assertThat(follower.get(5, TimeUnit.SECONDS)).isSameAs(leader.get());
+    assertThat(executions.get()).isEqualTo(1);
+  }
+
+  @Test
+  void testDifferentParametersAreNotShared() {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+
+    Integer first = coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT,
+        () -> coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 2, null, RowBounds.DEFAULT, () -> 2)
+            + coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, new RowBounds(1, 1),
+                () -> 3));
+
+    assertThat(first).isEqualTo(5);
+  }
+
+  @Test
+  void testDifferentFactoriesAreNotShared() {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    SqlSessionFactory otherSqlSessionFactory = new DefaultSqlSessionFactory(new Configuration());
+
+    // the nested call would wait for the outer one forever if it joined it
+    Integer first = coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT,
+        () -> coalescer.execute(otherSqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT,
+            () -> 2));
+
+    assertThat(first).isEqualTo(2);
+  }
+
+  @Test
+  void testResultCopier() {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    coalescer.setResultCopier(result -> new ArrayList<>((List<?>) result));
+    List<Integer> shared = Arrays.asList(1, 2);
+
+    List<Integer> result = coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, null, null,
+        RowBounds.DEFAULT, () -> shared);
+
+    assertThat(result).isNotSameAs(shared).isEqualTo(shared);
+  }
+
+  @Test
+  void testExceptionIsShared() throws Exception {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Object> leader = CompletableFuture.supplyAsync(() -> coalescer.execute(sqlSessionFactory,
+        Method.SELECT_LIST, STATEMENT, null, null, RowBounds.DEFAULT, () -> {
+          started.countDown();
+          await(release);
+          throw new DataRetrievalFailureException("failed");
+        }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    CompletableFuture<Object> follower = CompletableFuture.supplyAsync(() -> coalescer.execute(sqlSessionFactory,
+        Method.SELECT_LIST, STATEMENT, null, null, RowBounds.DEFAULT, () -> "not coalesced"));
+    Thread.sleep(100);
+    release.countDown();
+
+    Throwable leaderFailure = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause();
+    Throwable followerFailure = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause();
+    assertThat(leaderFailure).isInstanceOf(DataRetrievalFailureException.class).hasMessage("failed");
+    // the waiter gets the exception of the call that ran, whatever its timing
+    assertThat(followerFailure).isSameAs(leaderFailure);
+  }
+
+  @Test
+  void testDifferentMethodsAreNotShared() throws Exception {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<List<Integer>> list = CompletableFuture.supplyAsync(
+        () -> coalescer.execute(sqlSessionFactory, Method.SELECT_LIST, STATEMENT, 1, null, RowBounds.DEFAULT, () -> {
+          started.countDown();
+          await(release);
+          return Arrays.asList(1, 2);
+        }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // a selectOne and a selectMap of the same statement and parameter run on their own
+    Integer one = coalescer.execute(sqlSessionFactory, Method.SELECT_ONE, STATEMENT, 1, null, RowBounds.DEFAULT,
+        () -> 1);
+    Map<Integer, Integer> map = coalescer.execute(sqlSessionFactory, Method.SELECT_MAP, STATEMENT, 1, "id",
+        RowBounds.DEFAULT, () -> Collections.singletonMap(1, 1));
+    Map<Integer, Integer> otherMap = coalescer.execute(sqlSessionFactory, Method.SELECT_MAP, STATEMENT, 1, "other",
+        RowBounds.DEFAULT, () -> Collections.singletonMap(2, 2));
+    release.countDown();
+
+    assertThat(one).isEqualTo(1);
+    assertThat(map).containsOnlyKeys(1);
+    assertThat(otherMap).containsOnlyKeys(2);
+    assertThat(list.get(5, TimeUnit.SECONDS)).containsExactly(1, 2);
+  }
+
+  @Test
+  void testTemplateCoalescesOutsideTx() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    template.setSelectCoalescer(new SelectCoalescer(Collections.singleton(STATEMENT)));
+
+    assertThat((Integer) template.selectOne(STATEMENT)).isEqualTo(1);
+
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testTemplateDoesNotCoalesceInTx() {
+    SelectCoalescer coalescer = new SelectCoalescer(Collections.singleton(STATEMENT));
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    template.setSelectCoalescer(coalescer);
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    // an identical call running outside the transaction must not be joined
+    Integer result = coalescer.execute(sqlSessionFactory, Method.SELECT_ONE, STATEMENT, null, null, RowBounds.DEFAULT,
+        () -> template.selectOne(STATEMENT));
+    txManager.commit(status);
+
+    assertThat(result).isEqualTo(1);
+    assertCommitJdbc();
+    assertExecuteCount(1);
+  }
+
+  @AfterEach
+  void closeUnusedConnection() throws SQLException {
+    if (dataSource.getConnectionCount() == 0) {
+      connection.close(); // the coalescer was used without a template
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
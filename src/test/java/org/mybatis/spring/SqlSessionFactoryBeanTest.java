@@ -279,7 +279,7 @@ class SqlSessionFactoryBeanTest {
         .isSameAs(org.apache.ibatis.session.ExecutorType.REUSE);
 
     // for each statement in the xml file: org.mybatis.spring.TestMapper.xxx & xxx
-    assertThat(factory.getConfiguration().getMappedStatementNames().size()).isEqualTo(8);
+    assertThat(factory.getConfiguration().getMappedStatementNames().size()).isEqualTo(10);
 
     assertThat(factory.getConfiguration().getResultMapNames().size()).isEqualTo(0);
     assertThat(factory.getConfiguration().getParameterMapNames().size()).isEqualTo(0);
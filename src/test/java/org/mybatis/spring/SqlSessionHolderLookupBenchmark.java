@@ -0,0 +1,188 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Compares the lookups of the {@code SqlSessionHolder} bound to a transaction that a template call makes, before and
+ * after 2.0.7. Up to 2.0.6 the holder was looked up in {@code TransactionSynchronizationManager} to get the session, to
+ * check whether it is transactional and to release it; it is now looked up once and passed along. The transaction
+ * binds four other resources besides the holder, as a data source, an {@code EntityManager} and the like would.
+ * <p>
+ * Besides the time per call, the {@code lookups} and {@code calls} counters give the number of lookups per call: each
+ * lookup of the holder hashes the factory it is bound to.
+ * <p>
+ * It is not run by the build. Run it from the IDE or with
+ * {@code java -cp <test classpath> org.mybatis.spring.SqlSessionHolderLookupBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlSessionHolderLookupBenchmark {
+
+  private static final String STATEMENT = "org.mybatis.spring.TestMapper.findTest";
+
+  private static final int OTHER_RESOURCES = 4;
+
+  private final CountingSqlSessionFactory sqlSessionFactory = new CountingSqlSessionFactory();
+
+  private final SqlSessionTemplate template = new SqlSessionTemplate(this.sqlSessionFactory, ExecutorType.SIMPLE,
+      null);
+
+  @Setup
+  public void beginTransaction() {
+    TransactionSynchronizationManager.initSynchronization();
+    TransactionSynchronizationManager.setActualTransactionActive(true);
+    for (int i = 0; i < OTHER_RESOURCES; i++) {
+      TransactionSynchronizationManager.bindResource(new Object(), new Object());
+    }
+    SqlSessionHolder holder = new SqlSessionHolder(this.sqlSessionFactory.openSession(), ExecutorType.SIMPLE, null);
+    holder.setSynchronizedWithTransaction(true);
+    TransactionSynchronizationManager.bindResource(this.sqlSessionFactory, holder);
+  }
+
+  @TearDown
+  public void endTransaction() {
+    TransactionSynchronizationManager.clear();
+    new ArrayList<>(TransactionSynchronizationManager.getResourceMap().keySet())
+        .forEach(TransactionSynchronizationManager::unbindResource);
+  }
+
+  /**
+   * The acquire, check and release sequence of a call up to 2.0.6, each step looking the holder up.
+   */
+  @Benchmark
+  public Object lookupPerStep(Lookups lookups) {
+    long start = this.sqlSessionFactory.hashes;
+    SqlSession sqlSession = SqlSessionUtils.getSqlSession(this.sqlSessionFactory, ExecutorType.SIMPLE, null);
+    try {
+      Object result = sqlSession.selectOne(STATEMENT, 1);
+      if (!SqlSessionUtils.isSqlSessionTransactional(sqlSession, this.sqlSessionFactory)) {
+        sqlSession.commit(true);
+      }
+      return result;
+    } finally {
+      SqlSessionUtils.closeSqlSession(sqlSession, this.sqlSessionFactory);
+      lookups.count(this.sqlSessionFactory.hashes - start);
+    }
+  }
+
+  /**
+   * The same sequence looking the holder up once, as a template call does since 2.0.7.
+   */
+  @Benchmark
+  public Object lookupOnce(Lookups lookups) {
+    long start = this.sqlSessionFactory.hashes;
+    SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(this.sqlSessionFactory);
+    SqlSession sqlSession = SqlSessionUtils.getSqlSession(this.sqlSessionFactory, ExecutorType.SIMPLE, null, holder);
+    holder = SqlSessionUtils.managingHolder(sqlSession, this.sqlSessionFactory, holder);
+    try {
+      Object result = sqlSession.selectOne(STATEMENT, 1);
+      if (holder == null) {
+        sqlSession.commit(true);
+      }
+      return result;
+    } finally {
+      SqlSessionUtils.closeSqlSession(sqlSession, holder);
+      lookups.count(this.sqlSessionFactory.hashes - start);
+    }
+  }
+
+  /**
+   * A template call, which pays for its other features on top of the lookup.
+   */
+  @Benchmark
+  public Object templateSelectOne(Lookups lookups) {
+    long start = this.sqlSessionFactory.hashes;
+    try {
+      return this.template.selectOne(STATEMENT, 1);
+    } finally {
+      lookups.count(this.sqlSessionFactory.hashes - start);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SqlSessionHolderLookupBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  /**
+   * The lookups made by the measured calls of an iteration.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Lookups {
+
+    public long lookups;
+
+    public long calls;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.lookups = 0;
+      this.calls = 0;
+    }
+
+    void count(long lookups) {
+      this.lookups += lookups;
+      this.calls++;
+    }
+  }
+
+  /**
+   * Counts the lookups of the resources it is the key of, as each one hashes the key.
+   */
+  private static final class CountingSqlSessionFactory extends SqlSessionTemplateBenchmark.NoOpSqlSessionFactory {
+
+    private long hashes;
+
+    @Override
+    public int hashCode() {
+      this.hashes++;
+      return super.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return this == obj;
+    }
+  }
+
+}
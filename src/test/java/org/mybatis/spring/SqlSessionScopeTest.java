@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class SqlSessionScopeTest extends AbstractMyBatisSpringTest {
+
+  private static SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeAll
+  static void setupSqlTemplate() {
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+  }
+
+  @Test
+  void testScopeSharesOneSession() {
+    SqlSessionScope.run(sqlSessionFactory, () -> {
+      sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+      sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+
+      assertThat(executorInterceptor.isExecutorClosed()).as("should keep the scoped SqlSession open").isFalse();
+      assertNoCommit();
+    });
+
+    assertCommit();
+    assertSingleConnection();
+    assertExecuteCount(1);
+    assertThat(executorInterceptor.isExecutorClosed()).as("should close the scoped SqlSession").isTrue();
+  }
+
+  @Test
+  void testScopeWithError() {
+    assertThrows(IllegalStateException.class, () -> SqlSessionScope.run(sqlSessionFactory, () -> {
+      sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+      throw new IllegalStateException("unit of work failed");
+    }));
+
+    assertNoCommit();
+    assertSingleConnection();
+    assertThat(executorInterceptor.isExecutorClosed()).as("should close the scoped SqlSession").isTrue();
+  }
+
+  @Test
+  void testNestedScopeWithDifferentExecutorType() {
+    SqlSessionScope.run(sqlSessionFactory, () -> {
+      sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+      assertThrows(TransientDataAccessResourceException.class,
+          () -> SqlSessionScope.execute(sqlSessionFactory, ExecutorType.BATCH, () -> null));
+    });
+
+    assertCommit();
+  }
+
+  @Test
+  void testTransactionWithinScope() {
+    SqlSessionScope.run(sqlSessionFactory, () -> {
+      TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+      sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+      txManager.commit(status);
+    });
+
+    // the transaction got its own connection, the scoped session never opened one
+    assertCommitJdbc();
+    assertSingleConnection();
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.sample.domain.User;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+class SqlSessionTaskScopeTest {
+
+  private static final String GET_USER = "org.mybatis.spring.sample.mapper.UserMapper.getUser";
+
+  private static EmbeddedDatabase dataSource;
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  private static SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeAll
+  static void setupDatabase() throws Exception {
+    dataSource = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.HSQL).generateUniqueName(true)
+        .addScript("org/mybatis/spring/sample/db/database-schema.sql")
+        .addScript("org/mybatis/spring/sample/db/database-test-data.sql").build();
+    SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+    factoryBean.setDataSource(dataSource);
+    factoryBean.setMapperLocations(new ClassPathResource("org/mybatis/spring/sample/mapper/UserMapper.xml"));
+    sqlSessionFactory = factoryBean.getObject();
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+  }
+
+  @AfterAll
+  static void shutdownDatabase() {
+    dataSource.shutdown();
+  }
+
+  @Test
+  void testForkAndJoin() {
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      Supplier<User> user = scope.fork(() -> sqlSessionTemplate.selectOne(GET_USER, "u1"));
+      Supplier<List<User>> users = scope.fork(
+          () -> sqlSessionTemplate.selectList("org.mybatis.spring.sample.mapper.UserMapper.getUsers"));
+
+      assertThrows(IllegalStateException.class, user::get);
+
+      scope.join();
+
+      assertThat(user.get().getName()).isEqualTo("Pocoyo");
+      assertThat(users.get()).isNotEmpty();
+    }
+  }
+
+  @Test
+  void testSubtaskRunsInItsOwnScope() {
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      Supplier<Boolean> scoped = scope.fork(() -> SqlSessionScope.getHolder(sqlSessionFactory) != null);
+      scope.join();
+
+      assertThat(scoped.get()).isTrue();
+      assertThat(SqlSessionScope.getHolder(sqlSessionFactory)).isNull();
+    }
+  }
+
+  @Test
+  void testJoinRethrowsFirstFailure() {
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      scope.fork(() -> sqlSessionTemplate.selectOne(GET_USER, "u1"));
+      scope.fork(() -> sqlSessionTemplate.selectOne("org.mybatis.spring.sample.mapper.UserMapper.getUsers"));
+
+      assertThrows(DataAccessException.class, scope::join);
+    }
+  }
+
+  @Test
+  void testForkAfterJoin() {
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      scope.join();
+
+      assertThrows(IllegalStateException.class, () -> scope.fork(() -> null));
+    }
+  }
+
+  @Test
+  void testManySubtasksOnDefaultExecutor() {
+    int tasks = 200;
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      List<Supplier<User>> users = new ArrayList<>(tasks);
+      for (int i = 0; i < tasks; i++) {
+        users.add(scope.fork(() -> sqlSessionTemplate.selectOne(GET_USER, "u1")));
+      }
+      scope.join();
+
+      assertThat(users).allSatisfy(user -> assertThat(user.get().getId()).isEqualTo("u1"));
+    }
+  }
+
+  @Test
+  @Tag("stress")
+  void testStressWithManySubtasks() {
+    int tasks = 100_000;
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory)) {
+      List<Supplier<User>> users = new ArrayList<>(tasks);
+      for (int i = 0; i < tasks; i++) {
+        users.add(scope.fork(() -> sqlSessionTemplate.selectOne(GET_USER, "u1")));
+      }
+      scope.join();
+
+      assertThat(users).allSatisfy(user -> assertThat(user.get().getId()).isEqualTo("u1"));
+    }
+  }
+
+  @Test
+  void testManySubtasksOnGivenExecutor() throws Exception {
+    int tasks = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (SqlSessionTaskScope scope = new SqlSessionTaskScope(sqlSessionFactory, executor)) {
+      List<Supplier<User>> users = new ArrayList<>(tasks);
+      for (int i = 0; i < tasks; i++) {
+        users.add(scope.fork(() -> sqlSessionTemplate.selectOne(GET_USER, "u1")));
+      }
+      scope.join();
+
+      assertThat(users).allSatisfy(user -> assertThat(user.get().getId()).isEqualTo("u1"));
+    } finally {
+      executor.shutdown();
+      assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+    }
+  }
+
+}
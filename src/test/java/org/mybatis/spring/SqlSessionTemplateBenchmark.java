@@ -0,0 +1,340 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.mybatis.spring.SqlSessionUtils.closeSqlSession;
+import static org.mybatis.spring.SqlSessionUtils.getSqlSession;
+import static org.mybatis.spring.SqlSessionUtils.isSqlSessionTransactional;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a {@code SqlSessionTemplate} call outside a transaction through the JDK dynamic proxy used up to 2.0.6 with
+ * a call of the template, which dispatches directly. The sessions do nothing, so only the overhead of the call is
+ * measured.
+ * <p>
+ * This is not the cost of the dispatch alone: a template call also looks up the
+ * {@link org.mybatis.spring.annotation.Deadline} of its statement in a cache, and checks for a {@code SelectCoalescer}
+ * and for a {@code LifecycleEventListener}, none of which are set here. Within a transaction it would also account the
+ * statements pending in its session, which is not measured.
+ * <p>
+ * It is not run by the build. Run it from the IDE or with
+ * {@code java -cp <test classpath> org.mybatis.spring.SqlSessionTemplateBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlSessionTemplateBenchmark {
+
+  private static final String STATEMENT = "org.mybatis.spring.TestMapper.findTest";
+
+  private final SqlSessionFactory sqlSessionFactory = new NoOpSqlSessionFactory();
+
+  private final SqlSession proxy = (SqlSession) Proxy.newProxyInstance(SqlSessionFactory.class.getClassLoader(),
+      new Class[] { SqlSession.class }, new ProxyInterceptor(this.sqlSessionFactory));
+
+  private final SqlSessionTemplate template = new SqlSessionTemplate(this.sqlSessionFactory, ExecutorType.SIMPLE,
+      null);
+
+  @Benchmark
+  public Object proxySelectOne() {
+    return this.proxy.selectOne(STATEMENT, 1);
+  }
+
+  @Benchmark
+  public Object templateSelectOne() {
+    return this.template.selectOne(STATEMENT, 1);
+  }
+
+  @Benchmark
+  public int proxyUpdate() {
+    return this.proxy.update(STATEMENT, 1);
+  }
+
+  @Benchmark
+  public int templateUpdate() {
+    return this.template.update(STATEMENT, 1);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(SqlSessionTemplateBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  /**
+   * The invocation handler of the proxy used by {@code SqlSessionTemplate} up to 2.0.6, without exception translation.
+   */
+  private static final class ProxyInterceptor implements InvocationHandler {
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    ProxyInterceptor(SqlSessionFactory sqlSessionFactory) {
+      this.sqlSessionFactory = sqlSessionFactory;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      SqlSession sqlSession = getSqlSession(this.sqlSessionFactory, ExecutorType.SIMPLE, null);
+      try {
+        Object result = method.invoke(sqlSession, args);
+        if (!isSqlSessionTransactional(sqlSession, this.sqlSessionFactory)) {
+          sqlSession.commit(true);
+        }
+        return result;
+      } finally {
+        closeSqlSession(sqlSession, this.sqlSessionFactory);
+      }
+    }
+  }
+
+  static class NoOpSqlSessionFactory implements SqlSessionFactory {
+
+    private final Configuration configuration = new Configuration();
+
+    private final SqlSession sqlSession = new NoOpSqlSession(this.configuration);
+
+    @Override
+    public SqlSession openSession() {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(boolean autoCommit) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(Connection connection) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(TransactionIsolationLevel level) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(ExecutorType execType) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(ExecutorType execType, boolean autoCommit) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(ExecutorType execType, TransactionIsolationLevel level) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public SqlSession openSession(ExecutorType execType, Connection connection) {
+      return this.sqlSession;
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+      return this.configuration;
+    }
+  }
+
+  private static final class NoOpSqlSession implements SqlSession {
+
+    private static final Integer ROW = 1;
+
+    private final Configuration configuration;
+
+    NoOpSqlSession(Configuration configuration) {
+      this.configuration = configuration;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T selectOne(String statement) {
+      return (T) ROW;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T selectOne(String statement, Object parameter) {
+      return (T) ROW;
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+      return Collections.emptyMap();
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement) {
+      return null;
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+      return null;
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+      return null;
+    }
+
+    @Override
+    public void select(String statement, Object parameter, ResultHandler handler) {
+    }
+
+    @Override
+    public void select(String statement, ResultHandler handler) {
+    }
+
+    @Override
+    public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+    }
+
+    @Override
+    public int insert(String statement) {
+      return 1;
+    }
+
+    @Override
+    public int insert(String statement, Object parameter) {
+      return 1;
+    }
+
+    @Override
+    public int update(String statement) {
+      return 1;
+    }
+
+    @Override
+    public int update(String statement, Object parameter) {
+      return 1;
+    }
+
+    @Override
+    public int delete(String statement) {
+      return 1;
+    }
+
+    @Override
+    public int delete(String statement, Object parameter) {
+      return 1;
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void commit(boolean force) {
+    }
+
+    @Override
+    public void rollback() {
+    }
+
+    @Override
+    public void rollback(boolean force) {
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void clearCache() {
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+      return this.configuration;
+    }
+
+    @Override
+    public <T> T getMapper(Class<T> type) {
+      return this.configuration.getMapper(type, this);
+    }
+
+    @Override
+    public Connection getConnection() {
+      return null;
+    }
+  }
+
+}
@@ -20,12 +20,17 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mybatis.spring.annotation.Deadline;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.TransactionStatus;
@@ -165,6 +170,63 @@ public class SqlSessionTemplateTest extends AbstractMyBatisSpringTest {
 
   }
 
+  @Test
+  void testTemplateWithNoTxSelectAndNoReadOnlyCompletion() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    template.setReadOnlyCompletion(ReadOnlyCompletion.NONE);
+
+    template.getMapper(TestMapper.class).findTest();
+    assertNoCommit();
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+  }
+
+  @Test
+  void testTemplateWithNoTxSelectAndRollbackReadOnlyCompletion() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    template.setReadOnlyCompletion(ReadOnlyCompletion.ROLLBACK);
+
+    template.getMapper(TestMapper.class).findTest();
+    assertRollback();
+  }
+
+  @Test
+  void testTemplateWithNoTxInsertAndNoReadOnlyCompletion() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    template.setReadOnlyCompletion(ReadOnlyCompletion.NONE);
+
+    template.getMapper(TestMapper.class).insertTest("test1");
+    assertCommit();
+  }
+
+  @Test
+  void testSelectStreamWithNoTx() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+
+    try (Stream<Integer> stream = template.selectStream("org.mybatis.spring.TestMapper.findTest")) {
+      assertThat(stream.collect(Collectors.toList())).containsExactly(1);
+      assertThat(executorInterceptor.isExecutorClosed()).as("should keep the SqlSession open").isFalse();
+    }
+
+    assertCommit();
+    assertThat(executorInterceptor.isExecutorClosed()).as("should close the SqlSession").isTrue();
+  }
+
+  @Test
+  void testSelectStreamWithTx() {
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    try (Stream<Integer> stream = template.selectStream("org.mybatis.spring.TestMapper.findTest")) {
+      assertThat(stream.collect(Collectors.toList())).containsExactly(1);
+    }
+    assertNoCommit();
+
+    txManager.commit(status);
+
+    assertCommit();
+    assertSingleConnection();
+  }
+
   @Test
   void testWithTxRequired() {
     DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
@@ -180,4 +242,104 @@ public class SqlSessionTemplateTest extends AbstractMyBatisSpringTest {
     assertSingleConnection();
   }
 
+  @Test
+  void testDeadlineOfMapperMethod() {
+    if (!sqlSessionFactory.getConfiguration().hasMapper(DeadlineMapper.class)) {
+      sqlSessionFactory.getConfiguration().addMapper(DeadlineMapper.class);
+    }
+    SqlSessionTemplate template = new SqlSessionTemplate(sqlSessionFactory);
+
+    assertThat(template.getDeadlineNanos(DeadlineMapper.class.getName() + ".findWithDeadline"))
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(250));
+    assertThat(template.getDeadlineNanos(DeadlineMapper.class.getName() + ".find")).isEqualTo(0L);
+    assertThat(template.getDeadlineNanos("org.mybatis.spring.TestMapper.findTest")).isEqualTo(0L);
+  }
+
+  @Test
+  void testWithReadOnlyTx() {
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setReadOnly(true);
+
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+
+    txManager.commit(status);
+
+    // the SqlSession of a read-only transaction that did not write is just closed
+    assertCommitJdbc();
+    assertNoCommitSession();
+    assertThat(executorInterceptor.isExecutorClosed()).isTrue();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testWithReadOnlyTxThatWrites() {
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setReadOnly(true);
+
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+    sqlSessionTemplate.getMapper(TestMapper.class).insertTest("test1");
+
+    txManager.commit(status);
+
+    assertCommit();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testWithReadOnlyTxKeepsLocalCacheWhenSwitching() {
+    SqlSessionTemplate reuseTemplate = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.REUSE);
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setReadOnly(true);
+
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+    reuseTemplate.getMapper(TestMapper.class).findTest();
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+
+    // nothing was written, so the SIMPLE session answers from its local cache
+    assertExecuteCount(2);
+
+    txManager.commit(status);
+
+    assertNoCommitSession();
+    assertSingleConnection();
+  }
+
+  @Test
+  void testWithReadOnlyTxClearsLocalCacheAfterWrite() {
+    SqlSessionTemplate reuseTemplate = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.REUSE);
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setReadOnly(true);
+
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+    reuseTemplate.getMapper(TestMapper.class).insertTest("test1");
+    sqlSessionTemplate.getMapper(TestMapper.class).findTest();
+
+    // the REUSE session is dirty, so the SIMPLE session runs the select again
+    assertExecuteCount(3);
+
+    txManager.commit(status);
+
+    assertThat(executorInterceptor.getCommitCount()).as("should commit both SqlSessions").isEqualTo(2);
+    assertSingleConnection();
+  }
+
+  public interface DeadlineMapper {
+
+    @Deadline(250)
+    @Select("SELECT 1")
+    Integer findWithDeadline();
+
+    @Select("SELECT 1")
+    Integer find();
+
+  }
+
 }
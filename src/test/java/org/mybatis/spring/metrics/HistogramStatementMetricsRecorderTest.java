@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.dao.DataAccessException;
+
+class HistogramStatementMetricsRecorderTest extends AbstractMyBatisSpringTest {
+
+  private HistogramStatementMetricsRecorder recorder;
+
+  private SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeEach
+  void setupTemplate() {
+    recorder = new HistogramStatementMetricsRecorder();
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+    sqlSessionTemplate.setStatementMetricsRecorder(recorder);
+  }
+
+  @Test
+  void testRecordStatement() {
+    sqlSessionTemplate.selectOne("org.mybatis.spring.TestMapper.findTest");
+    sqlSessionTemplate.selectOne("org.mybatis.spring.TestMapper.findTest");
+
+    // each call outside a transaction commits its own session and connection
+    assertThat(connection.getNumberCommits()).isEqualTo(1);
+    assertThat(connectionTwo.getNumberCommits()).isEqualTo(1);
+    StatementMetrics metrics = recorder.snapshot("org.mybatis.spring.TestMapper.findTest");
+    assertThat(metrics.getCount()).isEqualTo(2);
+    assertThat(metrics.getFailures()).isZero();
+    assertThat(metrics.getLatency(StatementPhase.ACQUIRE).getCount()).isEqualTo(2);
+    assertThat(metrics.getLatency(StatementPhase.COMMIT).getCount()).isEqualTo(2);
+    assertThat(metrics.getLatency(StatementPhase.TRANSLATE).getCount()).isZero();
+    StatementMetrics.Latency execute = metrics.getLatency(StatementPhase.EXECUTE);
+    assertThat(execute.getP50Nanos()).isLessThanOrEqualTo(execute.getP99Nanos());
+    assertThat(execute.getP99Nanos()).isLessThanOrEqualTo(execute.getP999Nanos());
+    assertThat(execute.getMaxNanos()).isLessThanOrEqualTo(execute.getP999Nanos());
+  }
+
+  @Test
+  void testRecordFailedStatement() {
+    // this query must be the same as the query in TestMapper.xml
+    connection.getPreparedStatementResultSetHandler().prepareThrowsSQLException("SELECT 'fail'");
+
+    assertThrows(DataAccessException.class,
+        () -> sqlSessionTemplate.selectOne("org.mybatis.spring.TestMapper.findFail"));
+
+    StatementMetrics metrics = recorder.snapshot("org.mybatis.spring.TestMapper.findFail");
+    assertThat(metrics.getCount()).isEqualTo(1);
+    assertThat(metrics.getFailures()).isEqualTo(1);
+    assertThat(metrics.getLatency(StatementPhase.COMMIT).getCount()).isZero();
+    assertThat(metrics.getLatency(StatementPhase.TRANSLATE).getCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testReset() {
+    sqlSessionTemplate.selectOne("org.mybatis.spring.TestMapper.findTest");
+    assertThat(recorder.snapshot()).containsOnlyKeys("org.mybatis.spring.TestMapper.findTest");
+
+    recorder.reset();
+
+    assertThat(recorder.snapshot()).isEmpty();
+    assertThat(recorder.snapshot("org.mybatis.spring.TestMapper.findTest")).isNull();
+  }
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void testHistogramBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    StatementMetrics.Latency latency = histogram.snapshot();
+    assertThat(latency.getCount()).isEqualTo(1000);
+    assertThat(latency.getMaxNanos()).isEqualTo(1_000_000);
+    assertThat(latency.getMeanNanos()).isEqualTo(500_500);
+    // buckets are at most 12.5% wide
+    assertThat(latency.getP50Nanos()).isBetween(500_000L, 562_500L);
+    assertThat(latency.getP99Nanos()).isBetween(990_000L, 1_113_750L);
+  }
+
+}
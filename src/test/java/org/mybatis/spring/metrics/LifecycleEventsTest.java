@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class LifecycleEventsTest extends AbstractMyBatisSpringTest {
+
+  private static final String STATEMENT = "org.mybatis.spring.TestMapper.findTest";
+
+  private final List<String> events = new CopyOnWriteArrayList<>();
+
+  private final List<String> statements = new CopyOnWriteArrayList<>();
+
+  private SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeEach
+  void setupListener() {
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+    LifecycleEvents.setListener((event, statement, durationNanos) -> {
+      assertThat(durationNanos).isNotNegative();
+      events.add(event.name());
+      if (statement != null) {
+        statements.add(statement);
+      }
+    });
+  }
+
+  @AfterEach
+  void removeListener() {
+    LifecycleEvents.setListener(null);
+  }
+
+  @Test
+  void testEventsWithNoTx() {
+    sqlSessionTemplate.selectOne(STATEMENT);
+
+    assertThat(events).containsExactly("SESSION_OPEN", "CONNECTION_ACQUIRE", "STATEMENT_EXECUTE", "CONNECTION_COMMIT",
+        "CONNECTION_CLOSE", "SESSION_CLOSE");
+    assertThat(statements).containsExactly(STATEMENT);
+  }
+
+  @Test
+  void testEventsWithTx() {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    sqlSessionTemplate.selectOne(STATEMENT);
+    sqlSessionTemplate.selectOne(STATEMENT);
+    txManager.commit(status);
+
+    assertThat(events).containsSubsequence("SESSION_OPEN", "SESSION_REUSE", "SYNCHRONIZATION_BEFORE_COMMIT",
+        "SYNCHRONIZATION_BEFORE_COMPLETION", "SYNCHRONIZATION_AFTER_COMPLETION")
+        .doesNotContain("SESSION_CLOSE", "CONNECTION_COMMIT");
+    assertThat(statements).containsExactly(STATEMENT, STATEMENT);
+  }
+
+  @Test
+  void testNoEventsWithoutListener() {
+    LifecycleEvents.setListener(null);
+
+    sqlSessionTemplate.selectOne(STATEMENT);
+
+    assertThat(events).isEmpty();
+    assertThat(LifecycleEvents.start()).isZero();
+  }
+
+}
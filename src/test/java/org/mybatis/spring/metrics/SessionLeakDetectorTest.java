@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.apache.ibatis.session.SqlSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionUtils;
+import org.mybatis.spring.TestMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class SessionLeakDetectorTest extends AbstractMyBatisSpringTest {
+
+  private SessionLeakDetector detector;
+
+  @BeforeEach
+  void startDetector() {
+    detector = new SessionLeakDetector();
+    detector.setThresholdMillis(1);
+    detector.setStackTraceSamplingRate(1);
+    detector.start();
+  }
+
+  @AfterEach
+  void stopDetector() {
+    detector.stop();
+  }
+
+  @Test
+  void testReportsSessionHeldByTransaction() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    SqlSession session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    Thread.sleep(10);
+
+    List<HeldSession> held = detector.getHeldSessions();
+    assertThat(held).hasSize(1);
+    assertThat(held.get(0).getOrigin()).isEqualTo("SqlSessionUtils");
+    assertThat(held.get(0).getThreadName()).isEqualTo(Thread.currentThread().getName());
+    assertThat(held.get(0).getHeldMillis()).isGreaterThanOrEqualTo(1);
+    assertThat(held.get(0).getStackTrace()).isNotEmpty();
+    detector.check();
+
+    txManager.commit(status);
+
+    assertThat(detector.getOpenSessionCount()).isZero();
+    assertThat(detector.getHeldSessions()).isEmpty();
+  }
+
+  @Test
+  void testForgetsClosedSession() {
+    SqlSession session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session.getMapper(TestMapper.class).findTest();
+    assertThat(detector.getOpenSessionCount()).isEqualTo(1);
+
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    assertThat(detector.getOpenSessionCount()).isZero();
+  }
+
+  @Test
+  void testForgetsSessionClosedDirectly() throws Exception {
+    openAndCloseDirectly();
+    assertThat(detector.getOpenSessionCount()).isEqualTo(1);
+
+    // the session is forgotten once it is garbage collected
+    for (int i = 0; i < 50 && detector.getOpenSessionCount() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertThat(detector.getOpenSessionCount()).isZero();
+    assertThat(detector.getHeldSessions()).isEmpty();
+  }
+
+  private void openAndCloseDirectly() {
+    SqlSession session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session.getMapper(TestMapper.class).findTest();
+    session.close();
+  }
+
+  @Test
+  void testStackTraceNotSampled() throws Exception {
+    detector.setStackTraceSamplingRate(0);
+    SqlSession session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    try {
+      session.getMapper(TestMapper.class).findTest();
+      Thread.sleep(10);
+      List<HeldSession> held = detector.getHeldSessions();
+      assertThat(held).hasSize(1);
+      assertThat(held.get(0).getStackTrace()).isNull();
+    } finally {
+      SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+    }
+  }
+
+  @Test
+  void testOnlyOneDetectorStarted() {
+    assertThrows(IllegalStateException.class, () -> new SessionLeakDetector().start());
+
+    // null the connection since it was not used
+    // this avoids failing in validateConnectionClosed()
+    connection = null;
+  }
+
+  @Test
+  void testNotTrackedWhenStopped() {
+    detector.stop();
+
+    SqlSession session = SqlSessionUtils.getSqlSession(sqlSessionFactory);
+    session.getMapper(TestMapper.class).findTest();
+    SqlSessionUtils.closeSqlSession(session, sqlSessionFactory);
+
+    assertThat(detector.getOpenSessionCount()).isZero();
+  }
+
+}
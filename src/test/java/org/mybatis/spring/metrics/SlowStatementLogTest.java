@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class SlowStatementLogTest extends AbstractMyBatisSpringTest {
+
+  private final List<SlowStatement> slowStatements = new CopyOnWriteArrayList<>();
+
+  private SlowStatementLog slowStatementLog;
+
+  private SqlSessionTemplate sqlSessionTemplate;
+
+  @BeforeEach
+  void setupTemplate() {
+    slowStatementLog = new SlowStatementLog();
+    slowStatementLog.setThresholdMillis(0);
+    slowStatementLog.setSink(slowStatements::add);
+    sqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory);
+    sqlSessionTemplate.setSlowStatementLog(slowStatementLog);
+  }
+
+  @Test
+  void testReportSlowStatement() {
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertTest", "test1");
+
+    assertCommit();
+    assertThat(slowStatements).hasSize(1);
+    SlowStatement slowStatement = slowStatements.get(0);
+    assertThat(slowStatement.getStatement()).isEqualTo("org.mybatis.spring.TestMapper.insertTest");
+    assertThat(slowStatement.getElapsedNanos()).isPositive();
+    assertThat(slowStatement.getSql()).contains("INSERT ? INTO test");
+    assertThat(slowStatement.getParameter()).isEqualTo("test1");
+    assertThat(slowStatement.isTransactional()).isFalse();
+    assertThat(slowStatement.isFailed()).isFalse();
+  }
+
+  @Test
+  void testReportSlowStatementInTx() {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertTest", "test1");
+    txManager.commit(status);
+
+    assertThat(slowStatements).hasSize(1);
+    assertThat(slowStatements.get(0).isTransactional()).isTrue();
+  }
+
+  @Test
+  void testReportSlowStatementWithCollectionParameter() {
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertAll", Arrays.asList("test1", "test2"));
+
+    assertThat(slowStatements).hasSize(1);
+    assertThat(slowStatements.get(0).getSql()).contains("INSERT INTO test VALUES").contains("(?) , (?)");
+  }
+
+  @Test
+  void testFastStatementIsNotReported() {
+    slowStatementLog.setThresholdMillis(60_000);
+
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertTest", "test1");
+
+    assertThat(slowStatements).isEmpty();
+  }
+
+  @Test
+  void testParameterIsTruncated() {
+    slowStatementLog.setMaxParameterLength(4);
+
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertTest", "test1");
+
+    assertThat(slowStatements.get(0).getParameter()).isEqualTo("test...");
+  }
+
+  @Test
+  void testParameterIsNotSampled() {
+    slowStatementLog.setParameterSamplingRate(0.0);
+
+    sqlSessionTemplate.insert("org.mybatis.spring.TestMapper.insertTest", "test1");
+
+    assertThat(slowStatements.get(0).getParameter()).isNull();
+    assertThat(slowStatements.get(0).getSql()).isNotNull();
+  }
+
+}
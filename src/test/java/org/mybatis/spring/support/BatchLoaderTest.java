@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.BDDMockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.ibatis.session.SqlSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+
+class BatchLoaderTest {
+
+  private static final String STATEMENT = "findByIds";
+
+  @Mock
+  private SqlSession sqlSession;
+
+  private BatchLoader<Integer, String> loader;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    // returns one row per key, except for the negative ones
+    given(sqlSession.selectList(eq(STATEMENT), any())).willAnswer(invocation -> {
+      List<Integer> keys = invocation.getArgument(1);
+      return keys.stream().filter(key -> key >= 0).map(key -> "row-" + key).collect(Collectors.toList());
+    });
+    loader = new BatchLoader<>(sqlSession, STATEMENT, row -> Integer.valueOf(row.substring(4)));
+  }
+
+  @Test
+  void testLoadsPendingKeysWithOneQuery() throws Exception {
+    CompletableFuture<String> first = loader.load(1);
+    CompletableFuture<String> second = loader.load(2);
+    CompletableFuture<String> missing = loader.load(-1);
+
+    assertThat(first).isNotDone();
+    loader.dispatch();
+
+    assertThat(first.get()).isEqualTo("row-1");
+    assertThat(second.get()).isEqualTo("row-2");
+    assertThat(missing.get()).isNull();
+    then(sqlSession).should().selectList(STATEMENT, Arrays.asList(1, 2, -1));
+  }
+
+  @Test
+  void testCachesKeys() {
+    CompletableFuture<String> first = loader.load(1);
+    loader.dispatch();
+
+    assertThat(loader.load(1)).isSameAs(first);
+    loader.dispatch();
+
+    then(sqlSession).should(times(1)).selectList(eq(STATEMENT), any());
+  }
+
+  @Test
+  void testClear() {
+    loader.load(1);
+    loader.dispatch();
+    loader.clear();
+
+    loader.load(1);
+    loader.dispatch();
+
+    then(sqlSession).should(times(2)).selectList(STATEMENT, Arrays.asList(1));
+  }
+
+  @Test
+  void testMaxBatchSize() {
+    loader.setMaxBatchSize(2);
+
+    CompletableFuture<String> first = loader.load(1);
+    CompletableFuture<String> second = loader.load(2);
+
+    // a full batch is dispatched right away
+    assertThat(first).isCompletedWithValue("row-1");
+    assertThat(second).isCompletedWithValue("row-2");
+
+    Map<Integer, String> rows = loader.loadAll(Arrays.asList(3, 4, 5));
+
+    assertThat(rows).containsExactly(entry(3, "row-3"), entry(4, "row-4"), entry(5, "row-5"));
+    then(sqlSession).should().selectList(STATEMENT, Arrays.asList(1, 2));
+    then(sqlSession).should().selectList(STATEMENT, Arrays.asList(3, 4));
+    then(sqlSession).should().selectList(STATEMENT, Arrays.asList(5));
+  }
+
+  @Test
+  void testBatchWindow() {
+    ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    ScheduledFuture<?> firstWindow = mock(ScheduledFuture.class);
+    ScheduledFuture<?> secondWindow = mock(ScheduledFuture.class);
+    willReturn(firstWindow, secondWindow).given(scheduler).schedule(any(Runnable.class), anyLong(), any());
+    loader.setBatchWindow(scheduler, 10, TimeUnit.MILLISECONDS);
+    ArgumentCaptor<Runnable> windows = ArgumentCaptor.forClass(Runnable.class);
+
+    CompletableFuture<String> first = loader.load(1);
+    loader.load(2);
+    loader.dispatch();
+
+    assertThat(first).isCompletedWithValue("row-1");
+    then(firstWindow).should().cancel(false);
+
+    CompletableFuture<String> third = loader.load(3);
+    then(scheduler).should(times(2)).schedule(windows.capture(), eq(TimeUnit.MILLISECONDS.toNanos(10)),
+        eq(TimeUnit.NANOSECONDS));
+
+    // the window of the first batch has already started, it must not dispatch the second batch
+    windows.getAllValues().get(0).run();
+    assertThat(third).isNotDone();
+
+    windows.getAllValues().get(1).run();
+    assertThat(third).isCompletedWithValue("row-3");
+    then(sqlSession).should().selectList(STATEMENT, Arrays.asList(3));
+  }
+
+  @Test
+  void testFailedBatch() {
+    given(sqlSession.selectList(eq(STATEMENT), any())).willThrow(new DataRetrievalFailureException("failed"));
+
+    CompletableFuture<String> first = loader.load(1);
+    loader.dispatch();
+
+    ExecutionException e = assertThrows(ExecutionException.class, first::get);
+    assertThat(e.getCause()).isInstanceOf(DataRetrievalFailureException.class);
+    // failed keys are not cached
+    assertThat(loader.load(1)).isNotSameAs(first);
+  }
+
+  @Test
+  void testDuplicateRows() {
+    given(sqlSession.selectList(eq(STATEMENT), any())).willAnswer(invocation -> Arrays.asList("row-1", "row-1", "row-2"));
+
+    assertThrows(IncorrectResultSizeDataAccessException.class, () -> loader.loadAll(Arrays.asList(1, 2)));
+    assertThat(loader.load(2)).isCompletedWithValue("row-2");
+  }
+
+}
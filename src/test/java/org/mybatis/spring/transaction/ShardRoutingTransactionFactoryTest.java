@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockDataSource;
+
+import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.transaction.Transaction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+class ShardRoutingTransactionFactoryTest extends AbstractMyBatisSpringTest {
+
+  private MockDataSource shardDataSource;
+
+  private MockConnection shardConnection;
+
+  private ShardRoutingTransactionFactory transactionFactory;
+
+  @BeforeEach
+  void setupShards() {
+    shardConnection = createMockConnection();
+    shardDataSource = new MockDataSource();
+    shardDataSource.setupConnection(shardConnection);
+    Map<String, DataSource> shards = new LinkedHashMap<>();
+    shards.put("a", dataSource);
+    shards.put("b", shardDataSource);
+    transactionFactory = new ShardRoutingTransactionFactory(shards);
+  }
+
+  @AfterEach
+  void clearShardKey() {
+    ShardKeyHolder.clear();
+  }
+
+  @Test
+  void shouldRouteByShardKey() throws Exception {
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    ShardKeyHolder.set("b");
+    assertThat(transaction.getConnection()).isSameAs(shardConnection);
+    transaction.commit();
+    transaction.close();
+    assertThat(shardConnection.getNumberCommits()).as("should call commit on the shard Connection").isEqualTo(1);
+    assertThat(shardConnection.isClosed()).as("should close the shard Connection").isTrue();
+    connection.close(); // the other shard was not used
+  }
+
+  @Test
+  void shouldUseDefaultShard() throws Exception {
+    transactionFactory.setDefaultShardKey("a");
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    assertThat(transaction.getConnection()).isSameAs(connection);
+    transaction.close();
+    assertThat(shardConnection.isClosed()).as("should not use the other shard").isFalse();
+  }
+
+  @Test
+  void shouldRequireShardKey() throws Exception {
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    assertThat(catchThrowable(transaction::getConnection)).isInstanceOf(IllegalStateException.class);
+    transaction.close();
+    connection.close(); // no shard was used
+  }
+
+  @Test
+  void shouldNotSwitchShardOfSession() throws Exception {
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    ShardKeyHolder.set("a");
+    transaction.getConnection();
+    ShardKeyHolder.set("b");
+    assertThat(catchThrowable(transaction::getConnection)).isInstanceOf(IllegalStateException.class);
+    transaction.close();
+    assertThat(shardConnection.isClosed()).as("should not use the other shard").isFalse();
+  }
+
+  @Test
+  void shouldJoinTransactionOfShard() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    ShardKeyHolder.set("a");
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    Connection transactionConnection = transaction.getConnection();
+    assertThat(transactionConnection).isSameAs(connection);
+    transaction.commit();
+    transaction.close();
+    assertThat(connection.getNumberCommits()).as("should not call commit on Connection").isEqualTo(0);
+
+    ShardKeyHolder.set("b");
+    Transaction other = transactionFactory.newTransaction(null, null, false);
+    assertThat(catchThrowable(other::getConnection)).isInstanceOf(IllegalStateException.class);
+    other.close();
+
+    txManager.commit(status);
+    assertThat(connection.getNumberCommits()).as("should call commit on Connection").isEqualTo(1);
+    assertThat(shardConnection.isClosed()).as("should not use the other shard").isFalse();
+  }
+
+  @Test
+  void shouldNotJoinTransactionOfOtherShard() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    ShardKeyHolder.set("b");
+    Transaction transaction = transactionFactory.newTransaction(null, null, false);
+    assertThat(catchThrowable(transaction::getConnection)).isInstanceOf(IllegalStateException.class);
+    transaction.close();
+
+    txManager.commit(status);
+    assertThat(shardConnection.isClosed()).as("should not use the other shard").isFalse();
+  }
+
+  @Test
+  void shouldRefuseSharedCaches() throws Exception {
+    SqlSessionFactoryBean factoryBean = cachingFactoryBean();
+    assertThat(catchThrowable(factoryBean::getObject)).isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("setAllowSharedCaches");
+    connection.close(); // no shard was used
+  }
+
+  @Test
+  void shouldAllowSharedCaches() throws Exception {
+    transactionFactory.setAllowSharedCaches(true);
+    SqlSessionFactoryBean factoryBean = cachingFactoryBean();
+    assertThat(factoryBean.getObject().getConfiguration().getCacheNames()).containsExactly("shared");
+    connection.close(); // no shard was used
+  }
+
+  private SqlSessionFactoryBean cachingFactoryBean() {
+    Configuration configuration = new Configuration();
+    configuration.addCache(new PerpetualCache("shared"));
+    SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+    factoryBean.setDataSource(dataSource);
+    factoryBean.setConfiguration(configuration);
+    factoryBean.setTransactionFactory(transactionFactory);
+    return factoryBean;
+  }
+
+}
@@ -16,9 +16,23 @@
 package org.mybatis.spring.transaction;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockDataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.transaction.Transaction;
 import org.junit.jupiter.api.Test;
 import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
@@ -42,6 +56,199 @@ class SpringTransactionManagerTest extends AbstractMyBatisSpringTest {
     txManager.commit(status);
   }
 
+  @Test
+  void shouldNotReadAutocommitWithTx() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    AutoCommitTracker tracker = new AutoCommitTracker();
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setAutoCommitTracker(tracker);
+    SpringManagedTransaction transaction = (SpringManagedTransaction) transactionFactory.newTransaction(dataSource,
+        null, false);
+    transaction.getConnection();
+    transaction.commit();
+    transaction.close();
+    assertThat(tracker.getDriverCalls()).as("should not ask a transactional Connection").isEqualTo(0);
+    assertThat(tracker.getSavedCalls()).isEqualTo(1);
+
+    txManager.commit(status);
+  }
+
+  @Test
+  void shouldLearnAutocommitWithNoTx() throws Exception {
+    AutoCommitTracker tracker = new AutoCommitTracker();
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setAutoCommitTracker(tracker);
+
+    for (int i = 0; i < 2; i++) {
+      SpringManagedTransaction transaction = (SpringManagedTransaction) transactionFactory.newTransaction(dataSource,
+          null, false);
+      transaction.getConnection();
+      transaction.commit();
+      transaction.close();
+    }
+    assertThat(connection.getNumberCommits()).as("should call commit on Connection").isEqualTo(1);
+    assertThat(connectionTwo.getNumberCommits()).as("should call commit on second Connection").isEqualTo(1);
+    assertThat(tracker.getDriverCalls()).as("should only ask the first Connection").isEqualTo(1);
+    assertThat(tracker.getSavedCalls()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldOnlySaveAutocommitReadsWithTracker() throws Exception {
+    AtomicInteger driverCalls = new AtomicInteger();
+    MockConnection countingConnection = new MockConnection() {
+      @Override
+      public boolean getAutoCommit() throws SQLException {
+        driverCalls.incrementAndGet();
+        return super.getAutoCommit();
+      }
+    };
+    MockDataSource countingDataSource = new MockDataSource();
+    countingDataSource.setupConnection(countingConnection);
+
+    // without a tracker, every commit outside a transaction asks the connection, as it always did
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    commitTimes(transactionFactory, countingDataSource, 3);
+    assertThat(driverCalls).hasValue(3);
+
+    driverCalls.set(0);
+    transactionFactory.setAutoCommitTracker(new AutoCommitTracker());
+    commitTimes(transactionFactory, countingDataSource, 3);
+    assertThat(driverCalls).as("should only ask the first Connection").hasValue(1);
+
+    // null the connection since it was not used
+    // this avoids failing in validateConnectionClosed()
+    connection = null;
+  }
+
+  private static void commitTimes(SpringManagedTransactionFactory transactionFactory, DataSource dataSource, int times)
+      throws SQLException {
+    for (int i = 0; i < times; i++) {
+      Transaction transaction = transactionFactory.newTransaction(dataSource, null, false);
+      transaction.getConnection();
+      transaction.commit();
+      transaction.close();
+    }
+  }
+
+  @Test
+  void shouldTrustKnownAutocommit() throws Exception {
+    AutoCommitTracker tracker = new AutoCommitTracker(true);
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setAutoCommitTracker(tracker);
+    SpringManagedTransaction transaction = (SpringManagedTransaction) transactionFactory.newTransaction(dataSource,
+        null, false);
+    transaction.getConnection();
+    transaction.commit();
+    transaction.close();
+    assertThat(connection.getNumberCommits()).as("should not call commit on a Connection with autocommit").isEqualTo(0);
+    assertThat(tracker.getDriverCalls()).isEqualTo(0);
+    assertThat(tracker.getSavedCalls()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldUseDeadlineAsTimeout() throws Exception {
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
+    txDef.setTimeout(60);
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    SpringManagedTransaction transaction = new SpringManagedTransaction(dataSource);
+    transaction.getConnection();
+    assertThat(transaction.getTimeout()).isBetween(59, 60);
+    Integer timeout = StatementDeadline.within(Duration.ofMillis(1500), () -> timeoutOf(transaction));
+    assertThat(timeout).as("should round the deadline up").isEqualTo(2);
+    transaction.close();
+
+    txManager.commit(status);
+  }
+
+  @Test
+  void shouldFailAfterDeadline() throws Exception {
+    SpringManagedTransaction transaction = new SpringManagedTransaction(dataSource);
+    transaction.getConnection();
+    Throwable failure = StatementDeadline.within(Duration.ZERO, () -> catchThrowable(transaction::getTimeout));
+    assertThat(failure).isInstanceOf(SQLTimeoutException.class);
+    transaction.close();
+  }
+
+  @Test
+  void shouldShareStatementsWithTx() throws Exception {
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+
+    TransactionStatementCache statementCache = new TransactionStatementCache();
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setStatementCache(statementCache);
+
+    Transaction first = transactionFactory.newTransaction(dataSource, null, false);
+    PreparedStatement statement = first.getConnection().prepareStatement("SELECT 1");
+    statement.close();
+    first.close();
+
+    Transaction second = transactionFactory.newTransaction(dataSource, null, false);
+    assertThat(second.getConnection().prepareStatement("SELECT 1")).as("should reuse the statement")
+        .isSameAs(statement);
+    PreparedStatement other = second.getConnection().prepareStatement("SELECT 1");
+    assertThat(other).as("should not share a statement in use").isNotSameAs(statement);
+    other.close();
+    statement.close();
+    second.close();
+
+    txManager.commit(status);
+
+    assertThat(statementCache.getHits()).isEqualTo(1);
+    assertThat(statementCache.getMisses()).isEqualTo(2);
+    assertThat(statementCache.getHitRate()).isEqualTo(1.0 / 3);
+  }
+
+  @Test
+  void shouldNotShareStatementsWithNoTx() throws Exception {
+    TransactionStatementCache statementCache = new TransactionStatementCache();
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setStatementCache(statementCache);
+
+    Transaction transaction = transactionFactory.newTransaction(dataSource, null, false);
+    assertThat(transaction.getConnection()).isSameAs(connection);
+    transaction.close();
+
+    assertThat(statementCache.getMisses()).isEqualTo(0);
+  }
+
+  @Test
+  void shouldMarkReadOnlyWithReadOnlyTx() throws Exception {
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_SUPPORTS);
+    txDef.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    transactionFactory.setMarkReadOnly(true);
+    SpringManagedTransaction transaction = (SpringManagedTransaction) transactionFactory.newTransaction(dataSource,
+        null, false);
+    transaction.getConnection();
+    assertThat(transaction.isReadOnly()).isTrue();
+    assertThat(connection.isReadOnly()).as("should mark the Connection read-only").isTrue();
+    transaction.close();
+    assertThat(connection.isReadOnly()).as("should reset the Connection before releasing it").isFalse();
+
+    txManager.commit(status);
+  }
+
+  @Test
+  void shouldNotMarkReadOnlyByDefault() throws Exception {
+    DefaultTransactionDefinition txDef = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_SUPPORTS);
+    txDef.setReadOnly(true);
+    TransactionStatus status = txManager.getTransaction(txDef);
+
+    SpringManagedTransactionFactory transactionFactory = new SpringManagedTransactionFactory();
+    SpringManagedTransaction transaction = (SpringManagedTransaction) transactionFactory.newTransaction(dataSource,
+        null, false);
+    transaction.getConnection();
+    assertThat(transaction.isReadOnly()).isTrue();
+    assertThat(connection.isReadOnly()).as("should not mark the Connection read-only").isFalse();
+    transaction.close();
+
+    txManager.commit(status);
+  }
+
   // @Test
   // public void shouldManageWithOtherDatasource() throws Exception {
   // DefaultTransactionDefinition txDef = new DefaultTransactionDefinition();
@@ -96,4 +303,12 @@ class SpringTransactionManagerTest extends AbstractMyBatisSpringTest {
     assertThat(connection.isClosed()).as("should close the Connection").isTrue();
   }
 
+  private static Integer timeoutOf(SpringManagedTransaction transaction) {
+    try {
+      return transaction.getTimeout();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.*;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.plugin.Invocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+class StatementDeadlineInterceptorTest {
+
+  @Mock
+  private Statement statement;
+
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+
+  private StatementDeadlineInterceptor interceptor;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    willAnswer(invocation -> {
+      cancelled.countDown();
+      return null;
+    }).given(statement).cancel();
+    interceptor = new StatementDeadlineInterceptor();
+    interceptor.setCheckIntervalMillis(10);
+  }
+
+  @AfterEach
+  void tearDown() {
+    interceptor.destroy();
+  }
+
+  @Test
+  void testCancelsStatementAfterDeadline() throws Exception {
+    Throwable failure = StatementDeadline.within(Duration.ofMillis(50), this::interceptFailure);
+
+    assertThat(failure).isInstanceOf(SQLTimeoutException.class).hasMessageContaining("deadline");
+    assertThat(interceptor.getCancelledCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testCancelsStatementOfInterruptedThread() throws Exception {
+    Thread.currentThread().interrupt();
+    try {
+      Throwable failure = StatementDeadline.within(Duration.ofMinutes(1), this::interceptFailure);
+
+      assertThat(failure).isInstanceOf(SQLTimeoutException.class).hasMessageContaining("interrupted");
+      assertThat(interceptor.getCancelledCount()).isEqualTo(1);
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  void testDoesNotTrackStatementWithoutDeadline() throws Throwable {
+    // nothing would cancel the statement
+    cancelled.countDown();
+
+    assertThat(interceptor.intercept(newInvocation())).isEqualTo("executed");
+    verify(statement, never()).cancel();
+  }
+
+  @Test
+  void testNestedDeadlineKeepsEarliest() {
+    long remaining = StatementDeadline.within(Duration.ofSeconds(10),
+        () -> StatementDeadline.within(Duration.ofMinutes(1), StatementDeadline::getRemainingNanos));
+
+    assertThat(remaining).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(10));
+    assertThat(StatementDeadline.isSet()).isFalse();
+  }
+
+  private Throwable interceptFailure() {
+    try {
+      interceptor.intercept(newInvocation());
+      return null;
+    } catch (Throwable e) {
+      return e;
+    }
+  }
+
+  private Invocation newInvocation() throws NoSuchMethodException {
+    Method execute = StatementDeadlineInterceptorTest.class.getDeclaredMethod("execute", Statement.class);
+    execute.setAccessible(true);
+    return new Invocation(this, execute, new Object[] { statement });
+  }
+
+  // blocks until the statement is cancelled, ignoring interrupts as a driver would
+  private Object execute(Statement statement) throws SQLException {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (cancelled.getCount() > 0) {
+      if (System.nanoTime() - end > 0) {
+        throw new IllegalStateException("Statement was not cancelled");
+      }
+      Thread.yield();
+    }
+    if (StatementDeadline.isSet()) {
+      throw new SQLException("Statement cancelled by request");
+    }
+    return "executed";
+  }
+
+}
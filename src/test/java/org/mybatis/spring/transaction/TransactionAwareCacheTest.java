@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.transaction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.mockrunner.mock.jdbc.MockConnection;
+import com.mockrunner.mock.jdbc.MockDataSource;
+import com.mockrunner.mock.jdbc.MockResultSet;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.AbstractMyBatisSpringTest;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionUtils;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class TransactionAwareCacheTest extends AbstractMyBatisSpringTest {
+
+  @Test
+  void shouldPublishAfterCommit() throws Exception {
+    SqlSessionFactory factory = cachingFactory(dataSource);
+    Cache cache = factory.getConfiguration().getCache(CachedTestMapper.class.getName());
+    assertThat(factory.getConfiguration().getMappedStatement(CachedTestMapper.class.getName() + ".findTest")
+        .getCache()).isInstanceOf(TransactionAwareCache.class);
+
+    TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
+    findTest(factory);
+    AtomicInteger sizeBeforeCompletion = new AtomicInteger(-1);
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+      @Override
+      public void beforeCompletion() {
+        sizeBeforeCompletion.set(cache.getSize());
+      }
+    });
+    txManager.commit(status);
+
+    // the SqlSession was committed before completion, but its entry is only published after the commit
+    assertThat(sizeBeforeCompletion).hasValue(0);
+    assertThat(cache.getSize()).isEqualTo(1);
+    assertCommitJdbc();
+  }
+
+  @Test
+  void shouldDiscardWhenCommitFails() throws Exception {
+    MockConnection failingConnection = new MockConnection() {
+      @Override
+      public void commit() throws SQLException {
+        throw new SQLException("commit failed");
+      }
+    };
+    MockResultSet rs = new MockResultSet("SELECT 1");
+    rs.addRow(new Object[] { 1 });
+    failingConnection.getPreparedStatementResultSetHandler().prepareResultSet("SELECT 1", rs);
+    MockDataSource failingDataSource = new MockDataSource();
+    failingDataSource.setupConnection(failingConnection);
+    SqlSessionFactory factory = cachingFactory(failingDataSource);
+    Cache cache = factory.getConfiguration().getCache(CachedTestMapper.class.getName());
+    DataSourceTransactionManager failingTxManager = new DataSourceTransactionManager(failingDataSource);
+
+    TransactionStatus status = failingTxManager.getTransaction(new DefaultTransactionDefinition());
+    findTest(factory);
+
+    assertThat(catchThrowable(() -> failingTxManager.commit(status))).isInstanceOf(TransactionSystemException.class);
+    assertThat(cache.getSize()).as("should not publish the entries of a transaction that failed to commit")
+        .isEqualTo(0);
+    assertThat(failingConnection.isClosed()).isTrue();
+
+    // null the connection since it was not used
+    // this avoids failing in validateConnectionClosed()
+    connection = null;
+  }
+
+  @Test
+  void shouldWriteThroughWithoutTransaction() throws Exception {
+    SqlSessionFactory factory = cachingFactory(dataSource);
+    Cache cache = factory.getConfiguration().getCache(CachedTestMapper.class.getName());
+
+    findTest(factory);
+
+    assertThat(cache.getSize()).isEqualTo(1);
+  }
+
+  private static void findTest(SqlSessionFactory factory) {
+    SqlSession session = SqlSessionUtils.getSqlSession(factory);
+    try {
+      session.getMapper(CachedTestMapper.class).findTest();
+      if (!SqlSessionUtils.isSqlSessionTransactional(session, factory)) {
+        session.commit();
+      }
+    } finally {
+      SqlSessionUtils.closeSqlSession(session, factory);
+    }
+  }
+
+  private static SqlSessionFactory cachingFactory(DataSource dataSource) throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.addMapper(CachedTestMapper.class);
+    SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+    factoryBean.setDataSource(dataSource);
+    factoryBean.setConfiguration(configuration);
+    return factoryBean.getObject();
+  }
+
+}